@@ -0,0 +1,80 @@
+package com.thefileproject.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alpha flattening with {@link PixelConverter} against the {@code Graphics2D.drawImage} path it replaced.
+ * Run with {@code mvn -Pjmh -DskipTests verify}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PixelConverterBenchmark {
+
+    private static final int BACKGROUND = 0xFFFFFF;
+
+    @Param({"INT_ARGB", "4BYTE_ABGR", "3BYTE_BGR"})
+    public String type;
+
+    // Below and above PixelConverter's parallel threshold
+    @Param({"512", "4096"})
+    public int size;
+
+    private BufferedImage source;
+
+    @Setup
+    public void setUp() {
+        int imageType = switch (type) {
+            case "INT_ARGB" -> BufferedImage.TYPE_INT_ARGB;
+            case "4BYTE_ABGR" -> BufferedImage.TYPE_4BYTE_ABGR;
+            case "3BYTE_BGR" -> BufferedImage.TYPE_3BYTE_BGR;
+            default -> throw new IllegalArgumentException("Unknown image type " + type);
+        };
+
+        source = new BufferedImage(size, size, imageType);
+        Random random = new Random(1);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                source.setRGB(x, y, random.nextInt());
+            }
+        }
+    }
+
+    @Benchmark
+    public BufferedImage pixelConverter() {
+        return PixelConverter.flattenToRgb(source, BACKGROUND);
+    }
+
+    @Benchmark
+    public BufferedImage drawImage() {
+        BufferedImage canvas = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = canvas.createGraphics();
+        try {
+            graphics.setColor(new Color(BACKGROUND));
+            graphics.fillRect(0, 0, size, size);
+            graphics.drawImage(source, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return canvas;
+    }
+}
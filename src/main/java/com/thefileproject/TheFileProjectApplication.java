@@ -3,6 +3,7 @@ package com.thefileproject;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
@@ -11,6 +12,7 @@ import java.util.Arrays;
 import java.util.List;
 
 @SpringBootApplication
+@EnableScheduling
 public class TheFileProjectApplication {
 
 	public static void main(String[] args) {
@@ -22,7 +24,10 @@ public class TheFileProjectApplication {
         corsConfiguration.setAllowedOrigins(List.of("*"));
         corsConfiguration.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS"));
         corsConfiguration.setAllowedHeaders(List.of("*"));
-        corsConfiguration.setExposedHeaders(Arrays.asList("Content-Disposition", "Content-Type"));
+        corsConfiguration.setExposedHeaders(Arrays.asList("Content-Disposition", "Content-Type", "Content-Location",
+                "ETag", "Last-Modified", "Accept-Ranges", "Content-Range",
+                "X-Compression-Quality", "X-Compression-Scale", "X-Compression-Iterations",
+                "Server-Timing"));
 
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
         source.registerCorsConfiguration("/**", corsConfiguration);
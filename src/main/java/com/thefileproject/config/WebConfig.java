@@ -0,0 +1,28 @@
+package com.thefileproject.config;
+
+import com.thefileproject.interceptor.AdmissionInterceptor;
+import com.thefileproject.interceptor.ConversionDeadlineInterceptor;
+import com.thefileproject.tracing.RequestTraceInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@RequiredArgsConstructor
+public class WebConfig implements WebMvcConfigurer {
+
+    private final RequestTraceInterceptor requestTraceInterceptor;
+    private final ConversionDeadlineInterceptor conversionDeadlineInterceptor;
+    private final AdmissionInterceptor admissionInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(requestTraceInterceptor).addPathPatterns("/api/**");
+        registry.addInterceptor(conversionDeadlineInterceptor)
+                .addPathPatterns("/api/v1/convert/**", "/api/v1/templates", "/api/v1/templates/*/render",
+                        "/api/v1/inspect/**");
+        registry.addInterceptor(admissionInterceptor)
+                .addPathPatterns("/api/v1/convert/**", "/api/v1/templates", "/api/v1/templates/*/render");
+    }
+}
@@ -0,0 +1,28 @@
+package com.thefileproject.controller;
+
+import com.thefileproject.tracing.RequestTrace;
+import com.thefileproject.tracing.SlowRequestLog;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/diagnostics")
+@RequiredArgsConstructor
+public class DiagnosticsController {
+
+    private final SlowRequestLog slowRequestLog;
+
+    @GetMapping("/slow-requests")
+    public ResponseEntity<List<RequestTrace.Snapshot>> slowRequests(
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
+
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be a positive number");
+        }
+
+        return ResponseEntity.ok(slowRequestLog.slowest(limit));
+    }
+}
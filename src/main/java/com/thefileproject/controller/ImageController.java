@@ -1,5 +1,6 @@
 package com.thefileproject.controller;
 
+import com.thefileproject.interceptor.TiledImageOutput;
 import com.thefileproject.service.ImageService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.core.io.ByteArrayResource;
@@ -18,6 +19,7 @@ public class ImageController {
     private final ImageService imageService;
 
     @PostMapping("/to-png")
+    @TiledImageOutput(streamed = true)
     public ResponseEntity<Resource> convertToPng(@RequestParam("file") MultipartFile file) {
 
         byte[] convertedImage = imageService.convertToPng(file);
@@ -31,9 +33,14 @@ public class ImageController {
     }
 
     @PostMapping("/to-jpg")
-    public ResponseEntity<Resource> convertToJpg(@RequestParam("file") MultipartFile file) {
+    @TiledImageOutput
+    public ResponseEntity<Resource> convertToJpg(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "background", required = false) String background) {
 
-        byte[] convertedImage = imageService.convertToJpg(file);
+        byte[] convertedImage = background == null
+                ? imageService.convertToJpg(file)
+                : imageService.convertToJpg(file, ImageService.parseHexColor(background));
         String outputFilename = getFileNameWithoutExtension(file.getOriginalFilename()) + ".jpg";
 
         return ResponseEntity.ok()
@@ -76,8 +83,22 @@ public class ImageController {
     @PostMapping("/compress")
     public ResponseEntity<Resource> compressImage(
             @RequestParam("file") MultipartFile file,
-            @RequestParam(value = "quality", defaultValue = "0.8") float quality) {
-
+            @RequestParam(value = "quality", defaultValue = "0.8") float quality,
+            @RequestParam(value = "targetBytes", required = false) Long targetBytes,
+            @RequestParam(value = "allowScaling", defaultValue = "false") boolean allowScaling) {
+
+        if (targetBytes != null) {
+            ImageService.TargetSizeResult result = imageService.compressToTargetSize(file, targetBytes, allowScaling);
+
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"compressed_" + file.getOriginalFilename() + "\"")
+                    .header("X-Compression-Quality", String.valueOf(result.quality()))
+                    .header("X-Compression-Scale", String.valueOf(result.scale()))
+                    .header("X-Compression-Iterations", String.valueOf(result.iterations()))
+                    .contentType(MediaType.parseMediaType(file.getContentType()))
+                    .contentLength(result.data().length)
+                    .body(new ByteArrayResource(result.data()));
+        }
 
         if (quality < 0.1 || quality > 1.0) {
             throw new IllegalArgumentException("Quality must be between 0.1 and 1.0");
@@ -0,0 +1,30 @@
+package com.thefileproject.controller;
+
+import com.thefileproject.service.InspectionService;
+import com.thefileproject.service.InspectionService.OfficeInspection;
+import com.thefileproject.service.InspectionService.PdfInspection;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+@RestController
+@RequestMapping("/api/v1/inspect")
+@RequiredArgsConstructor
+public class InspectController {
+
+    private final InspectionService inspectionService;
+
+
+    @PostMapping(value = "/pdf", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<PdfInspection> inspectPdf(@RequestParam("file") MultipartFile file) {
+        return ResponseEntity.ok(inspectionService.inspectPdf(file));
+    }
+
+
+    @PostMapping(value = "/office", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<OfficeInspection> inspectOffice(@RequestParam("file") MultipartFile file) {
+        return ResponseEntity.ok(inspectionService.inspectOffice(file));
+    }
+}
@@ -1,6 +1,8 @@
 package com.thefileproject.controller;
 
 import com.thefileproject.service.OfficeService;
+import com.thefileproject.service.ResultStorageService;
+import com.thefileproject.service.ResultStorageService.StoredResult;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -13,17 +15,33 @@ import org.springframework.web.multipart.MultipartFile;
 @RequiredArgsConstructor
 public class OfficeController {
 
+    private static final MediaType DOCX_MEDIA_TYPE =
+            MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+    private static final MediaType XLSX_MEDIA_TYPE =
+            MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+
     private final OfficeService officeService;
+    private final ResultStorageService resultStorageService;
+
+    private ResponseEntity<byte[]> buildDocumentResponse(byte[] converted, String filename, MediaType mediaType) {
+        StoredResult stored = resultStorageService.store(converted, filename, mediaType);
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .header(HttpHeaders.CONTENT_LOCATION, stored.location())
+                .eTag(stored.etag())
+                .lastModified(stored.lastModified())
+                .contentType(mediaType)
+                .contentLength(converted.length)
+                .body(converted);
+    }
 
     @PostMapping("/pdf-to-docx")
     public ResponseEntity<byte[]> convertPdfToDocx(@RequestParam("file") MultipartFile file) {
         byte[] converted = officeService.convertPdfToDocx(file);
         String filename = officeService.buildOutputFileName(file.getOriginalFilename(), "docx");
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.wordprocessingml.document"))
-                .body(converted);
+        return buildDocumentResponse(converted, filename, DOCX_MEDIA_TYPE);
     }
 
     @PostMapping("/docx-to-xlsx")
@@ -31,10 +49,7 @@ public class OfficeController {
         byte[] converted = officeService.convertDocxToXlsx(file);
         String filename = officeService.buildOutputFileName(file.getOriginalFilename(), "xlsx");
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                .body(converted);
+        return buildDocumentResponse(converted, filename, XLSX_MEDIA_TYPE);
     }
 
     @PostMapping("/xlsx-to-docx")
@@ -42,9 +57,6 @@ public class OfficeController {
         byte[] converted = officeService.convertXlsxToDocx(file);
         String filename = officeService.buildOutputFileName(file.getOriginalFilename(), "docx");
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.wordprocessingml.document"))
-                .body(converted);
+        return buildDocumentResponse(converted, filename, DOCX_MEDIA_TYPE);
     }
 }
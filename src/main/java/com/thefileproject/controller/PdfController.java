@@ -1,6 +1,8 @@
 package com.thefileproject.controller;
 
 import com.thefileproject.service.PdfService;
+import com.thefileproject.service.ResultStorageService;
+import com.thefileproject.service.ResultStorageService.StoredResult;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -14,13 +16,19 @@ import org.springframework.web.multipart.MultipartFile;
 public class PdfController {
 
     private final PdfService pdfService;
+    private final ResultStorageService resultStorageService;
 
     private ResponseEntity<byte[]> buildPdfResponse(byte[] pdfBytes, String originalName) {
         String outputFileName = pdfService.buildOutputFileName(originalName, "pdf");
+        StoredResult stored = resultStorageService.store(pdfBytes, outputFileName, MediaType.APPLICATION_PDF);
 
         return ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_PDF)
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + outputFileName + "\"")
+                .header(HttpHeaders.CONTENT_LOCATION, stored.location())
+                .eTag(stored.etag())
+                .lastModified(stored.lastModified())
+                .contentLength(pdfBytes.length)
                 .body(pdfBytes);
     }
 
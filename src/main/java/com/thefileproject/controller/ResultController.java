@@ -0,0 +1,166 @@
+package com.thefileproject.controller;
+
+import com.thefileproject.exception.custom_exception_classes.ResultNotFoundException;
+import com.thefileproject.service.ResultStorageService;
+import com.thefileproject.service.ResultStorageService.StoredResult;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Serves stored conversion results with byte ranges, conditional requests and gzip.
+ * Large bodies go through the container's sendfile support when it is available.
+ */
+@RestController
+@RequestMapping("/api/v1/results")
+@RequiredArgsConstructor
+public class ResultController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final long ZERO_COPY_THRESHOLD = 1024 * 1024;
+
+    private final ResultStorageService resultStorageService;
+
+    @GetMapping("/{id}")
+    public void serveResult(@PathVariable String id, HttpServletRequest request,
+                            HttpServletResponse response) throws IOException {
+        StoredResult stored = resultStorageService.find(id)
+                .orElseThrow(() -> new ResultNotFoundException("Result " + id + " does not exist or has expired"));
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        Optional<Path> gzipVariant = rangeHeader == null && acceptsGzip(request)
+                ? resultStorageService.findGzipVariant(stored)
+                : Optional.empty();
+        String etag = gzipVariant.isPresent() ? stored.gzipEtag() : stored.etag();
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(stored.filename()).build().toString());
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, stored.lastModified().toEpochMilli());
+
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        if (webRequest.checkNotModified(etag, stored.lastModified().toEpochMilli())) {
+            return;
+        }
+
+        response.setContentType(stored.contentType().toString());
+
+        if (gzipVariant.isPresent()) {
+            Path gzipPath = gzipVariant.get();
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            sendFile(request, response, gzipPath, 0, gzipPath.toFile().length());
+            return;
+        }
+
+        long size = stored.size();
+        HttpRange range = rangeHeader != null && rangeMatches(request, stored) ? parseSingleRange(rangeHeader) : null;
+        if (range == null) {
+            sendFile(request, response, stored.path(), 0, size);
+            return;
+        }
+
+        long start;
+        long end;
+        try {
+            start = range.getRangeStart(size);
+            end = range.getRangeEnd(size);
+        } catch (IllegalArgumentException e) {
+            start = size;
+            end = size - 1;
+        }
+
+        if (start >= size || start > end) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+            response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            return;
+        }
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        sendFile(request, response, stored.path(), start, end - start + 1);
+    }
+
+    private void sendFile(HttpServletRequest request, HttpServletResponse response,
+                          Path path, long start, long length) throws IOException {
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        if (length >= ZERO_COPY_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    // If-Range only allows a partial response when the client's copy is still current
+    private boolean rangeMatches(HttpServletRequest request, StoredResult stored) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(stored.etag());
+        }
+        try {
+            long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return ifRangeDate >= stored.lastModified().toEpochMilli() / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            // Neither an entity tag nor a date: treat as a mismatch and send the full body
+            return false;
+        }
+    }
+
+    // Multi-range requests are answered with the full body, which the spec allows
+    private HttpRange parseSingleRange(String rangeHeader) {
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
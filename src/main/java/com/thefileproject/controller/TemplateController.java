@@ -0,0 +1,77 @@
+package com.thefileproject.controller;
+
+import com.thefileproject.interceptor.RendersTemplate;
+import com.thefileproject.service.PdfService;
+import com.thefileproject.service.ResultStorageService;
+import com.thefileproject.service.ResultStorageService.StoredResult;
+import com.thefileproject.service.TemplateService;
+import com.thefileproject.service.TemplateService.TemplateInfo;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/templates")
+@RequiredArgsConstructor
+public class TemplateController {
+
+    private final TemplateService templateService;
+    private final PdfService pdfService;
+    private final ResultStorageService resultStorageService;
+
+
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<TemplateInfo> register(@RequestParam("file") MultipartFile file) {
+        TemplateInfo info = templateService.register(file);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header(HttpHeaders.LOCATION, "/api/v1/templates/" + info.id())
+                .body(info);
+    }
+
+
+    @GetMapping
+    public List<TemplateInfo> list() {
+        return templateService.list();
+    }
+
+
+    @GetMapping("/{id}")
+    public TemplateInfo get(@PathVariable String id) {
+        return templateService.get(id);
+    }
+
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(@PathVariable String id) {
+        templateService.delete(id);
+        return ResponseEntity.noContent().build();
+    }
+
+
+    @PostMapping(value = "/{id}/render", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RendersTemplate
+    public ResponseEntity<byte[]> render(@PathVariable String id,
+                                         @RequestBody(required = false) Map<String, String> data) {
+        TemplateInfo info = templateService.get(id);
+        byte[] pdf = templateService.renderToPdf(id, data != null ? data : Map.of());
+
+        String outputFileName = pdfService.buildOutputFileName(info.filename(), "pdf");
+        StoredResult stored = resultStorageService.store(pdf, outputFileName, MediaType.APPLICATION_PDF);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_PDF)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + outputFileName + "\"")
+                .header(HttpHeaders.CONTENT_LOCATION, stored.location())
+                .eTag(stored.etag())
+                .lastModified(stored.lastModified())
+                .contentLength(pdf.length)
+                .body(pdf);
+    }
+}
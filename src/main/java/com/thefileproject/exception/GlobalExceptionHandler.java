@@ -1,15 +1,23 @@
 package com.thefileproject.exception;
 
+import com.thefileproject.exception.custom_exception_classes.AdmissionRejectedException;
+import com.thefileproject.exception.custom_exception_classes.ConversionTimeoutException;
 import com.thefileproject.exception.custom_exception_classes.FileConversionException;
 import com.thefileproject.exception.custom_exception_classes.FileTypeNotSupportedException;
 import com.thefileproject.exception.custom_exception_classes.InvalidFileException;
+import com.thefileproject.exception.custom_exception_classes.ResultNotFoundException;
+import com.thefileproject.exception.custom_exception_classes.TemplateNotFoundException;
 import com.thefileproject.exception.dto.ErrorResponse;
+import com.thefileproject.util.ConversionContext;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.connector.ClientAbortException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.AsyncRequestNotUsableException;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
 import java.time.LocalDateTime;
@@ -66,6 +74,86 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(errorResponse, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    @ExceptionHandler(ResultNotFoundException.class)
+    public ResponseEntity<ErrorResponse> handleResultNotFound(
+            ResultNotFoundException ex, WebRequest request) {
+        log.warn("Result not found: {}", ex.getMessage());
+
+        ErrorResponse errorResponse = new ErrorResponse(
+                LocalDateTime.now(),
+                HttpStatus.NOT_FOUND.value(),
+                "Result Not Found",
+                ex.getMessage(),
+                request.getDescription(false).replace("uri=", "")
+        );
+
+        return new ResponseEntity<>(errorResponse, HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(TemplateNotFoundException.class)
+    public ResponseEntity<ErrorResponse> handleTemplateNotFound(
+            TemplateNotFoundException ex, WebRequest request) {
+        log.warn("Template not found: {}", ex.getMessage());
+
+        ErrorResponse errorResponse = new ErrorResponse(
+                LocalDateTime.now(),
+                HttpStatus.NOT_FOUND.value(),
+                "Template Not Found",
+                ex.getMessage(),
+                request.getDescription(false).replace("uri=", "")
+        );
+
+        return new ResponseEntity<>(errorResponse, HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<ErrorResponse> handleAdmissionRejected(
+            AdmissionRejectedException ex, WebRequest request) {
+        log.warn("Request not admitted ({}): {}", ex.getStatus().value(), ex.getMessage());
+
+        ErrorResponse errorResponse = new ErrorResponse(
+                LocalDateTime.now(),
+                ex.getStatus().value(),
+                ex.getStatus().getReasonPhrase(),
+                ex.getMessage(),
+                request.getDescription(false).replace("uri=", "")
+        );
+
+        HttpHeaders headers = new HttpHeaders();
+        if (ex.getRetryAfterSeconds() > 0) {
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+        }
+
+        return new ResponseEntity<>(errorResponse, headers, ex.getStatus());
+    }
+
+    @ExceptionHandler(ConversionTimeoutException.class)
+    public ResponseEntity<ErrorResponse> handleConversionTimeout(
+            ConversionTimeoutException ex, WebRequest request) {
+        log.warn("Conversion timed out: {}", ex.getMessage());
+
+        ErrorResponse errorResponse = new ErrorResponse(
+                LocalDateTime.now(),
+                HttpStatus.GATEWAY_TIMEOUT.value(),
+                "Conversion Timed Out",
+                ex.getMessage(),
+                request.getDescription(false).replace("uri=", "")
+        );
+
+        return new ResponseEntity<>(errorResponse, HttpStatus.GATEWAY_TIMEOUT);
+    }
+
+    @ExceptionHandler({ClientAbortException.class, AsyncRequestNotUsableException.class})
+    public void handleClientDisconnect(Exception ex, WebRequest request) {
+        log.debug("Client disconnected from {}: {}",
+                request.getDescription(false).replace("uri=", ""), ex.getMessage());
+
+        ConversionContext context = ConversionContext.current();
+        if (context != null) {
+            context.cancel(ConversionContext.CLIENT_DISCONNECT_AFTER_COMPLETION);
+        }
+    }
+
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public ResponseEntity<ErrorResponse> handleMaxSizeException(
             MaxUploadSizeExceededException ex, WebRequest request) {
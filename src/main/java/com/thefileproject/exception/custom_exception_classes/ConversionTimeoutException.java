@@ -0,0 +1,7 @@
+package com.thefileproject.exception.custom_exception_classes;
+
+public class ConversionTimeoutException extends RuntimeException {
+    public ConversionTimeoutException(String message) {
+        super(message);
+    }
+}
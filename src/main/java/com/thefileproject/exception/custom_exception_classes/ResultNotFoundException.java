@@ -0,0 +1,7 @@
+package com.thefileproject.exception.custom_exception_classes;
+
+public class ResultNotFoundException extends RuntimeException {
+    public ResultNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.thefileproject.exception.custom_exception_classes;
+
+public class TemplateNotFoundException extends RuntimeException {
+    public TemplateNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,72 @@
+package com.thefileproject.interceptor;
+
+import com.thefileproject.service.AdmissionService;
+import com.thefileproject.service.TemplateService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.Map;
+
+/**
+ * Reserves conversion capacity for every upload, or for the template a request renders,
+ * before the controller runs and releases it once the response has been written.
+ */
+@Component
+@RequiredArgsConstructor
+public class AdmissionInterceptor implements HandlerInterceptor {
+
+    private static final String RESERVATION_ATTRIBUTE = AdmissionInterceptor.class.getName() + ".reservation";
+
+    private final AdmissionService admissionService;
+    private final TemplateService templateService;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        MultipartFile file = resolveInput(request, handler);
+        if (file == null || file.isEmpty()) {
+            return true;
+        }
+
+        request.setAttribute(RESERVATION_ATTRIBUTE, admissionService.admit(file, imageOutput(handler)));
+        return true;
+    }
+
+    private MultipartFile resolveInput(HttpServletRequest request, Object handler) {
+        if (request instanceof MultipartHttpServletRequest multipartRequest) {
+            return multipartRequest.getFile("file");
+        }
+
+        if (handler instanceof HandlerMethod method && method.hasMethodAnnotation(RendersTemplate.class)
+                && request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE) instanceof Map<?, ?> variables
+                && variables.get("id") instanceof String id) {
+            // An unknown id is left to the controller, which answers 404
+            return templateService.exists(id) ? templateService.getSource(id) : null;
+        }
+        return null;
+    }
+
+    private AdmissionService.ImageOutput imageOutput(Object handler) {
+        if (handler instanceof HandlerMethod method
+                && method.getMethodAnnotation(TiledImageOutput.class) instanceof TiledImageOutput tiled) {
+            return tiled.streamed() ? AdmissionService.ImageOutput.TILED_STREAMED
+                    : AdmissionService.ImageOutput.TILED_ASSEMBLED;
+        }
+        return AdmissionService.ImageOutput.FULL_RASTER;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+                                Object handler, Exception ex) {
+        if (request.getAttribute(RESERVATION_ATTRIBUTE) instanceof AdmissionService.Reservation reservation) {
+            reservation.close();
+            request.removeAttribute(RESERVATION_ATTRIBUTE);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.thefileproject.interceptor;
+
+import com.thefileproject.util.ConversionContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a {@link ConversionContext} bounded by {@code file.conversion.timeout-seconds} for each
+ * conversion request. A watchdog cancels the context at the deadline, which aborts in-flight codec
+ * calls and makes the next converter checkpoint throw.
+ * <p>
+ * A client disconnect only becomes visible to a servlet once the response is written, after the
+ * conversion has finished; it is reported to the context by {@code GlobalExceptionHandler} and
+ * counted here under its own reason rather than as aborted work.
+ */
+@Slf4j
+@Component
+public class ConversionDeadlineInterceptor implements HandlerInterceptor, DisposableBean {
+
+    private static final String CONTEXT_ATTRIBUTE = ConversionDeadlineInterceptor.class.getName() + ".context";
+    private static final String WATCHDOG_ATTRIBUTE = ConversionDeadlineInterceptor.class.getName() + ".watchdog";
+
+    private final Duration timeout;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "conversion-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ConversionDeadlineInterceptor(@Value("${file.conversion.timeout-seconds:30}") long timeoutSeconds,
+                                         MeterRegistry meterRegistry) {
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.meterRegistry = meterRegistry;
+        // Almost every deadline is cancelled on completion; drop those right away rather than queueing them until due
+        watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ConversionContext context = ConversionContext.open(timeout);
+        ScheduledFuture<?> deadline = watchdog.schedule(
+                () -> context.cancel(ConversionContext.TIMEOUT), timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        request.setAttribute(CONTEXT_ATTRIBUTE, context);
+        request.setAttribute(WATCHDOG_ATTRIBUTE, deadline);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+                                Object handler, Exception ex) {
+        if (request.getAttribute(WATCHDOG_ATTRIBUTE) instanceof ScheduledFuture<?> deadline) {
+            deadline.cancel(false);
+        }
+
+        if (request.getAttribute(CONTEXT_ATTRIBUTE) instanceof ConversionContext context) {
+            String reason = context.getCancelReason();
+            if (context.isWorkAborted()) {
+                meterRegistry.counter("conversion.aborted", "reason", reason).increment();
+                log.warn("Conversion for {} aborted: {}", request.getRequestURI(), reason);
+            } else if (ConversionContext.CLIENT_DISCONNECT_AFTER_COMPLETION.equals(reason)) {
+                meterRegistry.counter("conversion.aborted", "reason", reason).increment();
+                log.debug("Client left {} after the conversion completed", request.getRequestURI());
+            }
+            context.close();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        watchdog.shutdownNow();
+    }
+}
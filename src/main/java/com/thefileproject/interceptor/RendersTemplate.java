@@ -0,0 +1,15 @@
+package com.thefileproject.interceptor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an endpoint that renders the registered template named by its {@code {id}} path variable,
+ * so admission control estimates the cost from that template's source instead of an upload.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RendersTemplate {
+}
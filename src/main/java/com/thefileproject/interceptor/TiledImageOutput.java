@@ -0,0 +1,20 @@
+package com.thefileproject.interceptor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an image endpoint that converts very large images in strips, so admission control
+ * estimates the strips in flight instead of the full decoded raster.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TiledImageOutput {
+
+    /**
+     * Whether the encoder writes strip by strip (PNG) rather than assembling the converted raster (JPEG).
+     */
+    boolean streamed() default false;
+}
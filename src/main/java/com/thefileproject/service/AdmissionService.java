@@ -0,0 +1,395 @@
+package com.thefileproject.service;
+
+import com.thefileproject.exception.custom_exception_classes.AdmissionRejectedException;
+import com.thefileproject.tracing.RequestTrace;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Estimates how much memory a conversion will need and only lets it run when the
+ * estimate fits into the node's remaining budget. Requests that do not fit wait in a
+ * short bounded queue and are shed with 429/503 when the queue is full or the wait times out.
+ */
+@Slf4j
+@Service
+public class AdmissionService {
+
+    // Rough heap cost per input byte once each library has parsed the document
+    private static final int PDF_EXPANSION_FACTOR = 8;
+    private static final int OOXML_EXPANSION_FACTOR = 6;
+    private static final int OLE2_EXPANSION_FACTOR = 10;
+    private static final int DEFAULT_EXPANSION_FACTOR = 4;
+    // Decoded raster plus one converted copy, 4 bytes per pixel each
+    private static final int BYTES_PER_DECODED_PIXEL = 8;
+
+    private static final int ZIP_TAIL_BYTES = 256 * 1024;
+    private static final int ZIP_END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP_CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+
+    private final long tiledThresholdPixels;
+    private final int tileHeight;
+    private final int tileParallelism;
+    private final long tileMemoryBudget;
+    private final long memoryBudget;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long queueTimeoutMillis;
+    private final long retryAfterSeconds;
+    private final MeterRegistry meterRegistry;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacityReleased = lock.newCondition();
+    private long reservedBytes;
+    private long retainedBytes;
+    private int inFlight;
+    private int queued;
+
+    public record CostEstimate(String format, long memoryBytes) {
+    }
+
+    /**
+     * How the endpoint handles images above {@code file.image.tiled-threshold-pixels}.
+     */
+    public enum ImageOutput {
+        FULL_RASTER,
+        TILED_ASSEMBLED,
+        TILED_STREAMED
+    }
+
+    public AdmissionService(@Value("${file.admission.memory-budget-mb:0}") long memoryBudgetMb,
+                            @Value("${file.admission.max-concurrent:0}") int maxConcurrent,
+                            @Value("${file.admission.max-queued:16}") int maxQueued,
+                            @Value("${file.admission.queue-timeout-ms:5000}") long queueTimeoutMillis,
+                            @Value("${file.admission.retry-after-seconds:5}") long retryAfterSeconds,
+                            @Value("${file.image.tiled-threshold-pixels:40000000}") long tiledThresholdPixels,
+                            @Value("${file.image.tile-height:1024}") int tileHeight,
+                            @Value("${file.image.tile-parallelism:0}") int tileParallelism,
+                            @Value("${file.image.tile-memory-mb:256}") long tileMemoryMb,
+                            MeterRegistry meterRegistry) {
+        this.memoryBudget = memoryBudgetMb > 0 ? memoryBudgetMb * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 2;
+        this.maxConcurrent = maxConcurrent > 0 ? maxConcurrent : Runtime.getRuntime().availableProcessors();
+        this.maxQueued = maxQueued;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.tiledThresholdPixels = tiledThresholdPixels;
+        this.tileHeight = tileHeight;
+        this.tileParallelism = tileParallelism;
+        this.tileMemoryBudget = tileMemoryMb * 1024 * 1024;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("admission.reserved.bytes", this, service -> service.snapshot(() -> service.reservedBytes))
+                .register(meterRegistry);
+        Gauge.builder("admission.retained.bytes", this, service -> service.snapshot(() -> service.retainedBytes))
+                .register(meterRegistry);
+        Gauge.builder("admission.in.flight", this, service -> service.snapshot(() -> service.inFlight))
+                .register(meterRegistry);
+        Gauge.builder("admission.queued", this, service -> service.snapshot(() -> service.queued))
+                .register(meterRegistry);
+    }
+
+    public Reservation admit(MultipartFile file, ImageOutput imageOutput) {
+        CostEstimate estimate = estimate(file, imageOutput);
+        long cost = estimate.memoryBytes();
+
+        if (cost > memoryBudget) {
+            recordDecision("rejected", estimate);
+            throw new AdmissionRejectedException("Estimated conversion cost of " + toMegabytes(cost) +
+                    "MB exceeds this server's capacity of " + toMegabytes(memoryBudget) + "MB",
+                    HttpStatus.PAYLOAD_TOO_LARGE, 0);
+        }
+
+        lock.lock();
+        try {
+            if (fits(cost)) {
+                return reserve(cost, estimate, "admitted");
+            }
+
+            if (queued >= maxQueued) {
+                recordDecision("shed_queue_full", estimate);
+                throw new AdmissionRejectedException("Too many conversions are waiting; please retry later",
+                        HttpStatus.TOO_MANY_REQUESTS, retryAfterSeconds);
+            }
+
+            queued++;
+            try {
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+                while (!fits(cost)) {
+                    if (remainingNanos <= 0) {
+                        recordDecision("shed_timeout", estimate);
+                        throw new AdmissionRejectedException("Server is busy; please retry later",
+                                HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds);
+                    }
+                    remainingNanos = capacityReleased.awaitNanos(remainingNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                recordDecision("shed_timeout", estimate);
+                throw new AdmissionRejectedException("Server is busy; please retry later",
+                        HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds);
+            } finally {
+                queued--;
+            }
+
+            return reserve(cost, estimate, "queued");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param imageOutput whether the endpoint converts very large images in strips, in which case only
+     *                    the strips in flight (and, unless streamed, the assembled output) count towards its cost
+     */
+    public CostEstimate estimate(MultipartFile file, ImageOutput imageOutput) {
+        long size = file.getSize();
+
+        try (RequestTrace.Phase ignored = RequestTrace.phase(RequestTrace.SNIFF)) {
+            String format = sniffFormat(file);
+            long memory = switch (format) {
+                case "png", "jpg", "gif", "bmp", "webp" -> estimateImage(file, size, imageOutput);
+                case "pdf" -> size * PDF_EXPANSION_FACTOR;
+                case "zip" -> estimateZip(file, size);
+                case "ole2" -> size * OLE2_EXPANSION_FACTOR;
+                default -> size * DEFAULT_EXPANSION_FACTOR;
+            };
+            return new CostEstimate(format, memory);
+        } catch (IOException e) {
+            log.debug("Cost estimation failed for {}: {}", file.getOriginalFilename(), e.getMessage());
+            return new CostEstimate("unknown", size * DEFAULT_EXPANSION_FACTOR);
+        }
+    }
+
+    /**
+     * Counts memory kept between requests, such as parsed templates, against the budget so that
+     * conversions are only admitted into what is left. Never waits or rejects: the caller bounds
+     * what it keeps.
+     */
+    public Retention retain(long bytes) {
+        lock.lock();
+        try {
+            retainedBytes += bytes;
+        } finally {
+            lock.unlock();
+        }
+        return new Retention(bytes);
+    }
+
+    private boolean fits(long cost) {
+        return inFlight < maxConcurrent && reservedBytes + retainedBytes + cost <= memoryBudget;
+    }
+
+    private Reservation reserve(long cost, CostEstimate estimate, String decision) {
+        reservedBytes += cost;
+        inFlight++;
+        recordDecision(decision, estimate);
+        return new Reservation(cost);
+    }
+
+    private void release(long cost) {
+        lock.lock();
+        try {
+            reservedBytes -= cost;
+            inFlight--;
+            capacityReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseRetained(long bytes) {
+        lock.lock();
+        try {
+            retainedBytes -= bytes;
+            capacityReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordDecision(String decision, CostEstimate estimate) {
+        meterRegistry.counter("admission.decisions", "decision", decision, "format", estimate.format()).increment();
+        log.debug("Admission {} for {} request with estimated cost {}MB",
+                decision, estimate.format(), toMegabytes(estimate.memoryBytes()));
+    }
+
+    private double snapshot(LongSupplier value) {
+        lock.lock();
+        try {
+            return value.getAsLong();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String sniffFormat(MultipartFile file) throws IOException {
+        byte[] header = new byte[12];
+        int read;
+        try (InputStream in = file.getInputStream()) {
+            read = in.readNBytes(header, 0, header.length);
+        }
+
+        if (read >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+            return "png";
+        }
+        if (read >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return "jpg";
+        }
+        if (read >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8') {
+            return "gif";
+        }
+        if (read >= 2 && header[0] == 'B' && header[1] == 'M') {
+            return "bmp";
+        }
+        if (read >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "webp";
+        }
+        if (read >= 4 && header[0] == '%' && header[1] == 'P' && header[2] == 'D' && header[3] == 'F') {
+            return "pdf";
+        }
+        if (read >= 4 && header[0] == 'P' && header[1] == 'K' && header[2] == 3 && header[3] == 4) {
+            return "zip";
+        }
+        if (read >= 4 && (header[0] & 0xFF) == 0xD0 && (header[1] & 0xFF) == 0xCF
+                && (header[2] & 0xFF) == 0x11 && (header[3] & 0xFF) == 0xE0) {
+            return "ole2";
+        }
+        return "unknown";
+    }
+
+    private long estimateImage(MultipartFile file, long size, ImageOutput imageOutput) throws IOException {
+        try (InputStream in = file.getInputStream();
+             ImageInputStream imageInput = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                return size * DEFAULT_EXPANSION_FACTOR;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                int width = reader.getWidth(0);
+                long pixels = (long) width * reader.getHeight(0);
+                if (pixels > tiledThresholdPixels && imageOutput != ImageOutput.FULL_RASTER
+                        && TiledImageSource.supportsRegionDecoding(reader)) {
+                    // Tiled mode: strips in flight within the tile budget plus, unless PNG streams out, the assembled output
+                    int stripHeight = (int) Math.min(tileHeight, reader.getHeight(0));
+                    long strips = (long) width * stripHeight * TiledImageSource.BYTES_PER_STRIP_PIXEL
+                            * TiledImageSource.stripsInFlight(width, stripHeight, tileParallelism, tileMemoryBudget);
+                    return size + strips + (imageOutput == ImageOutput.TILED_STREAMED ? 0 : pixels * 4);
+                }
+                return size + pixels * BYTES_PER_DECODED_PIXEL;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Sums the uncompressed entry sizes from the ZIP central directory, which for DOCX/XLSX
+     * tracks the amount of XML (paragraphs, rows) POI will have to build a DOM for.
+     */
+    private long estimateZip(MultipartFile file, long size) throws IOException {
+        int tailLength = (int) Math.min(size, ZIP_TAIL_BYTES);
+        byte[] tail = new byte[tailLength];
+        try (InputStream in = file.getInputStream()) {
+            in.skipNBytes(size - tailLength);
+            in.readNBytes(tail, 0, tailLength);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        int endRecord = -1;
+        for (int i = tailLength - 22; i >= 0; i--) {
+            if (buffer.getInt(i) == ZIP_END_OF_CENTRAL_DIRECTORY) {
+                endRecord = i;
+                break;
+            }
+        }
+        if (endRecord < 0) {
+            return size * OOXML_EXPANSION_FACTOR;
+        }
+
+        int entries = Short.toUnsignedInt(buffer.getShort(endRecord + 10));
+        long directorySize = Integer.toUnsignedLong(buffer.getInt(endRecord + 12));
+        long position = endRecord - directorySize;
+        if (position < 0) {
+            return size * OOXML_EXPANSION_FACTOR;
+        }
+
+        long uncompressed = 0;
+        int offset = (int) position;
+        for (int i = 0; i < entries && offset + 46 <= endRecord; i++) {
+            if (buffer.getInt(offset) != ZIP_CENTRAL_DIRECTORY_HEADER) {
+                return size * OOXML_EXPANSION_FACTOR;
+            }
+            uncompressed += Integer.toUnsignedLong(buffer.getInt(offset + 24));
+            int nameLength = Short.toUnsignedInt(buffer.getShort(offset + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(offset + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(offset + 32));
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+
+        return Math.max(size, uncompressed) * OOXML_EXPANSION_FACTOR;
+    }
+
+    private long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    /**
+     * Memory and CPU slot held by an admitted conversion; released exactly once on close.
+     */
+    public class Reservation implements AutoCloseable {
+        private final long cost;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(long cost) {
+            this.cost = cost;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(cost);
+            }
+        }
+    }
+
+    /**
+     * Memory counted by {@link #retain(long)}; released exactly once on close.
+     */
+    public class Retention implements AutoCloseable {
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Retention(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                releaseRetained(bytes);
+            }
+        }
+    }
+}
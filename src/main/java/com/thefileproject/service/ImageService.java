@@ -2,39 +2,113 @@ package com.thefileproject.service;
 import com.thefileproject.exception.custom_exception_classes.FileConversionException;
 import com.thefileproject.exception.custom_exception_classes.FileTypeNotSupportedException;
 import com.thefileproject.exception.custom_exception_classes.InvalidFileException;
+import com.thefileproject.tracing.RequestTrace;
+import com.thefileproject.util.ConversionContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.UnaryOperator;
 import java.io.InputStream;
 
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class ImageService {
 
     private static final List<String> SUPPORTED_IMAGE_FORMATS =
             Arrays.asList("jpg", "jpeg", "png", "gif", "bmp", "webp");
 
+    private static final List<String> LOSSY_IMAGE_FORMATS = Arrays.asList("jpg", "webp");
+
+    private static final float MIN_QUALITY = 0.1f;
+    private static final float MAX_QUALITY = 1.0f;
+    private static final float SCALED_QUALITY = 0.75f;
+    private static final double MIN_SCALE = 0.05;
+    private static final int MAX_SEARCH_ITERATIONS = 8;
+    // A result this close to the budget is good enough; further probes rarely pay off
+    private static final double FIT_TOLERANCE = 0.95;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.upload.temp-dir}")
+    private String tempDirectory;
+
+    private int jpgBackground;
+
+    @Value("${file.image.tiled-threshold-pixels:40000000}")
+    private long tiledThresholdPixels;
+
+    @Value("${file.image.tile-height:1024}")
+    private int tileHeight;
+
+    @Value("${file.image.tile-parallelism:0}")
+    private int tileParallelism;
+
+    @Value("${file.image.tile-memory-mb:256}")
+    private long tileMemoryMb;
+
+    public record TargetSizeResult(byte[] data, float quality, double scale, int iterations) {
+    }
+
+    @Value("${file.image.jpg-background:000000}")
+    void setJpgBackground(String background) {
+        this.jpgBackground = parseHexColor(background);
+    }
+
+    /**
+     * Parses {@code RRGGBB} or {@code #RRGGBB}, the format accepted both in configuration and in requests.
+     */
+    public static int parseHexColor(String value) {
+        String hex = value.startsWith("#") ? value.substring(1) : value;
+        if (!hex.matches("[0-9a-fA-F]{6}")) {
+            throw new IllegalArgumentException("Background must be a hex colour such as #FFFFFF");
+        }
+        return Integer.parseInt(hex, 16);
+    }
+
     public byte[] convertToPng(MultipartFile file) {
         validateImageFile(file);
 
+        if (exceedsTiledThreshold(file)) {
+            return convertTiled(file, "png", UnaryOperator.identity());
+        }
+
         try {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(file.getBytes()));
+            BufferedImage image = readImage(file.getBytes());
             if (image == null) {
                 throw new InvalidFileException("Cannot read image from file: " + file.getOriginalFilename());
             }
 
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ImageIO.write(image, "PNG", outputStream);
+            writeImage(image, "PNG", outputStream);
 
             log.info("Successfully converted {} to PNG", file.getOriginalFilename());
             return outputStream.toByteArray();
@@ -46,24 +120,27 @@ public class ImageService {
     }
 
     public byte[] convertToJpg(MultipartFile file) {
+        return convertToJpg(file, jpgBackground);
+    }
+
+    /**
+     * @param background colour (0xRRGGBB) that transparent pixels are flattened onto
+     */
+    public byte[] convertToJpg(MultipartFile file, int background) {
         validateImageFile(file);
 
+        if (exceedsTiledThreshold(file)) {
+            return convertTiled(file, "jpg", strip -> flattenToRgb(strip, background));
+        }
+
         try {
-            BufferedImage originalImage = ImageIO.read(new ByteArrayInputStream(file.getBytes()));
+            BufferedImage originalImage = readImage(file.getBytes());
             if (originalImage == null) {
                 throw new InvalidFileException("Cannot read image from file: " + file.getOriginalFilename());
             }
 
-            BufferedImage rgbImage = new BufferedImage(
-                    originalImage.getWidth(),
-                    originalImage.getHeight(),
-                    BufferedImage.TYPE_INT_RGB
-            );
-
-            rgbImage.createGraphics().drawImage(originalImage, 0, 0, null);
-
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ImageIO.write(rgbImage, "jpg", outputStream);
+            writeImage(flattenToRgb(originalImage, background), "jpg", outputStream);
 
             log.info("Successfully converted {} to JPG", file.getOriginalFilename());
             return outputStream.toByteArray();
@@ -79,14 +156,14 @@ public class ImageService {
         validateImageFile(file);
 
         try {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(file.getBytes()));
+            BufferedImage image = readImage(file.getBytes());
             if (image == null) {
                 throw new InvalidFileException("Cannot read image from file: " + file.getOriginalFilename());
             }
 
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
-            boolean success = ImageIO.write(image, "webp", outputStream);
+            boolean success = writeImage(image, "webp", outputStream);
 
             if (!success) {
                 throw new FileConversionException("WebP format is not supported by the current ImageIO configuration");
@@ -111,7 +188,9 @@ public class ImageService {
         try {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
-            try (InputStream in = file.getInputStream()) {
+            ConversionContext.checkpoint();
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM);
+                 InputStream in = file.getInputStream()) {
                 var builder = Thumbnails.of(in);
 
                 if (keepAspectRatio) {
@@ -131,6 +210,7 @@ public class ImageService {
 
                 builder.toOutputStream(outputStream);
             }
+            ConversionContext.checkpoint();
 
             log.info("Successfully resized {} to {}x{}", file.getOriginalFilename(), width, height);
             return outputStream.toByteArray();
@@ -147,10 +227,14 @@ public class ImageService {
         try {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
-            Thumbnails.of(new ByteArrayInputStream(file.getBytes()))
-                    .scale(1.0)
-                    .outputQuality(quality)
-                    .toOutputStream(outputStream);
+            ConversionContext.checkpoint();
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM)) {
+                Thumbnails.of(new ByteArrayInputStream(file.getBytes()))
+                        .scale(1.0)
+                        .outputQuality(quality)
+                        .toOutputStream(outputStream);
+            }
+            ConversionContext.checkpoint();
 
             long originalSize = file.getSize();
             long compressedSize = outputStream.size();
@@ -168,6 +252,313 @@ public class ImageService {
         }
     }
 
+    /**
+     * Compresses an image so the encoded result fits into {@code targetBytes}.
+     * The image is decoded once; quality (and, if allowed, scale) is then binary-searched
+     * by re-encoding the decoded raster, keeping the best result that fits the budget.
+     */
+    public TargetSizeResult compressToTargetSize(MultipartFile file, long targetBytes, boolean allowScaling) {
+        validateImageFile(file);
+
+        if (targetBytes <= 0) {
+            throw new IllegalArgumentException("Target size must be a positive number of bytes");
+        }
+
+        try {
+            byte[] originalBytes = file.getBytes();
+            if (originalBytes.length <= targetBytes) {
+                recordTargetSizeResult("original", 0);
+                log.info("{} already fits into {} bytes, returning it unchanged",
+                        file.getOriginalFilename(), targetBytes);
+                return new TargetSizeResult(originalBytes, MAX_QUALITY, 1.0, 0);
+            }
+
+            BufferedImage image = readImage(originalBytes);
+            if (image == null) {
+                throw new InvalidFileException("Cannot read image from file: " + file.getOriginalFilename());
+            }
+
+            String format = getFileExtension(file.getOriginalFilename()).toLowerCase();
+            if (format.equals("jpeg")) {
+                format = "jpg";
+            }
+            if (format.equals("jpg")) {
+                image = flattenToRgb(image, jpgBackground);
+            }
+            boolean lossy = LOSSY_IMAGE_FORMATS.contains(format);
+
+            int iterations = 0;
+            byte[] best = null;
+            float bestQuality = MAX_QUALITY;
+
+            if (lossy) {
+                float low = MIN_QUALITY;
+                float high = MAX_QUALITY;
+                while (iterations < MAX_SEARCH_ITERATIONS) {
+                    float quality = (low + high) / 2;
+                    byte[] encoded = encodeWithinBudget(image, format, quality, targetBytes);
+                    iterations++;
+                    if (encoded == null) {
+                        high = quality;
+                        continue;
+                    }
+                    best = encoded;
+                    bestQuality = quality;
+                    low = quality;
+                    if (encoded.length >= targetBytes * FIT_TOLERANCE) {
+                        break;
+                    }
+                }
+
+                if (best == null) {
+                    best = encodeWithinBudget(image, format, MIN_QUALITY, targetBytes);
+                    bestQuality = MIN_QUALITY;
+                    iterations++;
+                }
+            } else {
+                best = encodeWithinBudget(image, format, MAX_QUALITY, targetBytes);
+                iterations++;
+            }
+
+            if (best != null) {
+                recordTargetSizeResult("quality", iterations);
+                log.info("Compressed {} to {} bytes (budget {}) at quality {} after {} iterations",
+                        file.getOriginalFilename(), best.length, targetBytes, bestQuality, iterations);
+                return new TargetSizeResult(best, bestQuality, 1.0, iterations);
+            }
+
+            if (!allowScaling) {
+                recordTargetSizeResult("unreachable", iterations);
+                throw new InvalidFileException("Image cannot be compressed to " + targetBytes +
+                        " bytes without scaling; retry with allowScaling=true or a larger target size");
+            }
+
+            float scaledQuality = lossy ? SCALED_QUALITY : MAX_QUALITY;
+            double bestScale = 0;
+            double low = MIN_SCALE;
+            double high = 1.0;
+            // Encoded size grows roughly with pixel count, so the original size gives a first estimate
+            double scale = Math.max(MIN_SCALE, Math.min(1.0,
+                    Math.sqrt((double) targetBytes / originalBytes.length)));
+
+            for (int step = 0; step < MAX_SEARCH_ITERATIONS; step++) {
+                ConversionContext.checkpoint();
+                BufferedImage scaled;
+                try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM)) {
+                    scaled = Thumbnails.of(image).scale(scale).asBufferedImage();
+                }
+                byte[] encoded = encodeWithinBudget(scaled, format, scaledQuality, targetBytes);
+                iterations++;
+                if (encoded == null) {
+                    high = scale;
+                } else {
+                    best = encoded;
+                    bestScale = scale;
+                    low = scale;
+                    if (encoded.length >= targetBytes * FIT_TOLERANCE) {
+                        break;
+                    }
+                }
+                scale = (low + high) / 2;
+            }
+
+            if (best == null) {
+                recordTargetSizeResult("unreachable", iterations);
+                throw new InvalidFileException("Image cannot be compressed to " + targetBytes + " bytes");
+            }
+
+            recordTargetSizeResult("scaled", iterations);
+            log.info("Compressed {} to {} bytes (budget {}) at quality {} and scale {} after {} iterations",
+                    file.getOriginalFilename(), best.length, targetBytes, scaledQuality,
+                    String.format("%.3f", bestScale), iterations);
+            return new TargetSizeResult(best, scaledQuality, bestScale, iterations);
+
+        } catch (IOException e) {
+            log.error("Failed to compress image to target size: {}", e.getMessage());
+            throw new FileConversionException("Failed to compress image to target size", e);
+        }
+    }
+
+    /**
+     * Converts a raster too large for the heap by decoding, converting and encoding it in strips.
+     * PNG output is streamed strip by strip; the JPEG writer still assembles the converted raster,
+     * but the decoded source is never held in full.
+     */
+    private byte[] convertTiled(MultipartFile file, String format, UnaryOperator<BufferedImage> stripConverter) {
+        Path spooled = null;
+
+        try {
+            Path directory = Files.createDirectories(Path.of(tempDirectory));
+            spooled = Files.createTempFile(directory, "tiled-", ".img");
+            file.transferTo(spooled);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (TiledImageSource source = new TiledImageSource(spooled, tileHeight, tileParallelism,
+                    tileMemoryMb * 1024 * 1024, stripConverter)) {
+                if (!writeImage(source, format, outputStream)) {
+                    throw new FileConversionException("No image writer available for format: " + format);
+                }
+            }
+
+            log.info("Successfully converted {} to {} in tiled mode", file.getOriginalFilename(), format.toUpperCase());
+            return outputStream.toByteArray();
+
+        } catch (IOException | UncheckedIOException e) {
+            // A decoder stopped by the deadline surfaces as an I/O failure; report it as the timeout
+            ConversionContext.checkpoint();
+            log.error("Failed to convert image in tiled mode: {}", e.getMessage());
+            throw new FileConversionException("Failed to convert image to " + format.toUpperCase(), e);
+        } finally {
+            if (spooled != null) {
+                try {
+                    Files.deleteIfExists(spooled);
+                } catch (IOException e) {
+                    log.warn("Failed to delete spooled image {}: {}", spooled, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean exceedsTiledThreshold(MultipartFile file) {
+        try (InputStream in = file.getInputStream();
+             ImageInputStream imageInput = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                return false;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                if (!TiledImageSource.supportsRegionDecoding(reader)) {
+                    return false;
+                }
+                reader.setInput(imageInput, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0) > tiledThresholdPixels;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Equivalent of {@link ImageIO#read} that lets a cancelled conversion abort the decoder.
+     */
+    private BufferedImage readImage(byte[] bytes) throws IOException {
+        ConversionContext.checkpoint();
+
+        try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.DECODE);
+             ImageInputStream imageInput = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try (ConversionContext.AbortRegistration ignored = ConversionContext.onAbort(reader::abort)) {
+                reader.setInput(imageInput, true, true);
+                BufferedImage image = reader.read(0, reader.getDefaultReadParam());
+                ConversionContext.checkpoint();
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Equivalent of {@link ImageIO#write} that lets a cancelled conversion abort the encoder.
+     */
+    private boolean writeImage(RenderedImage image, String format, OutputStream output) throws IOException {
+        ConversionContext.checkpoint();
+
+        Iterator<ImageWriter> writers =
+                ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image), format);
+        if (!writers.hasNext()) {
+            return false;
+        }
+
+        ImageWriter writer = writers.next();
+        try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.ENCODE);
+             ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output);
+             ConversionContext.AbortRegistration ignored = ConversionContext.onAbort(writer::abort)) {
+            writer.setOutput(imageOutput);
+
+            // Interlaced/progressive output makes several passes over the rows, which tiled sources cannot stream
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteProgressive()) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DISABLED);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        ConversionContext.checkpoint();
+        return true;
+    }
+
+    private byte[] encodeWithinBudget(BufferedImage image, String format, float quality, long budget)
+            throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new FileConversionException("No image writer available for format: " + format);
+        }
+
+        ConversionContext.checkpoint();
+        ImageWriter writer = writers.next();
+        BudgetedImageOutputStream imageOutput = new BudgetedImageOutputStream(budget);
+        try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.ENCODE);
+             imageOutput;
+             ConversionContext.AbortRegistration ignored = ConversionContext.onAbort(writer::abort)) {
+            writer.setOutput(imageOutput);
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null) {
+                    param.setCompressionType(pickCompressionType(param.getCompressionTypes()));
+                }
+                if (!param.isCompressionLossless()) {
+                    param.setCompressionQuality(quality);
+                }
+            }
+
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException | RuntimeException e) {
+            if (imageOutput.isExceeded()) {
+                return null;
+            }
+            throw e;
+        } finally {
+            writer.dispose();
+        }
+        ConversionContext.checkpoint();
+
+        return imageOutput.toByteArray();
+    }
+
+    private String pickCompressionType(String[] compressionTypes) {
+        for (String type : compressionTypes) {
+            if (type.toLowerCase().contains("lossy")) {
+                return type;
+            }
+        }
+        return compressionTypes[0];
+    }
+
+    private void recordTargetSizeResult(String outcome, int iterations) {
+        meterRegistry.counter("image.compress.target.results", "outcome", outcome).increment();
+        meterRegistry.summary("image.compress.target.iterations").record(iterations);
+    }
+
+    private BufferedImage flattenToRgb(BufferedImage image, int background) {
+        try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM)) {
+            return PixelConverter.flattenToRgb(image, background);
+        }
+    }
+
     private void validateImageFile(MultipartFile file) {
         if (file == null || file.isEmpty()) {
             throw new InvalidFileException("File is empty or null");
@@ -191,4 +582,87 @@ public class ImageService {
         int lastDotIndex = filename.lastIndexOf('.');
         return (lastDotIndex == -1) ? "" : filename.substring(lastDotIndex + 1);
     }
-}
\ No newline at end of file
+
+    /**
+     * In-memory, seekable {@link ImageOutputStream} that fails the write which would take the
+     * output past the budget. Writers get it directly instead of through
+     * {@code ImageIO.createImageOutputStream}, whose disk cache would absorb the whole encode
+     * before a single byte reached a budgeted {@code OutputStream}.
+     */
+    private static class BudgetedImageOutputStream extends ImageOutputStreamImpl {
+        private final long budget;
+        private byte[] buffer = new byte[8192];
+        private int length;
+        private boolean exceeded;
+
+        BudgetedImageOutputStream(long budget) {
+            this.budget = budget;
+        }
+
+        /**
+         * Whether a write was refused; writers wrap the resulting exception in their own
+         * ({@code IIOException}, sometimes a {@code RuntimeException}), so callers check this instead.
+         */
+        boolean isExceeded() {
+            return exceeded;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureCapacity(streamPos + 1);
+            bitOffset = 0;
+            buffer[(int) streamPos++] = (byte) b;
+            length = (int) Math.max(length, streamPos);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureCapacity(streamPos + len);
+            bitOffset = 0;
+            System.arraycopy(b, off, buffer, (int) streamPos, len);
+            streamPos += len;
+            length = (int) Math.max(length, streamPos);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            return streamPos < length ? buffer[(int) streamPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= length) {
+                return -1;
+            }
+            int count = (int) Math.min(len, length - streamPos);
+            System.arraycopy(buffer, (int) streamPos, b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        private void ensureCapacity(long required) throws IOException {
+            checkClosed();
+            if (required > budget || required > Integer.MAX_VALUE - 8) {
+                exceeded = true;
+                throw new IIOException("Encoded output exceeds the budget of " + budget + " bytes");
+            }
+            if (required > buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(Math.max(required, (long) buffer.length * 2),
+                        Math.min(budget, Integer.MAX_VALUE - 8)));
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.thefileproject.service;
+
+import com.thefileproject.exception.custom_exception_classes.FileTypeNotSupportedException;
+import com.thefileproject.exception.custom_exception_classes.InvalidFileException;
+import com.thefileproject.tracing.RequestTrace;
+import com.thefileproject.util.ConversionContext;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Reports the structure of PDF, DOCX and XLSX files without converting them.
+ * <p>
+ * Uploads are spooled to disk and opened in place: PDFs are loaded from the cross-reference
+ * table and only the catalog, page tree, info dictionary and outline are resolved, never the
+ * page content streams. DOCX/XLSX files are read as ZIP archives and only the document
+ * properties, the workbook index and the head of each worksheet are streamed.
+ */
+@Slf4j
+@Service
+public class InspectionService {
+
+    private static final String RELATIONSHIPS_NAMESPACE =
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    @Value("${file.upload.temp-dir}")
+    private String tempDirectory;
+
+    @Value("${file.inspect.max-pages:1000}")
+    private int maxPages;
+
+    public record PageInfo(int number, float width, float height, int rotation) {
+    }
+
+    public record OutlineEntry(String title, Integer page) {
+    }
+
+    public record PdfInspection(String filename, float version, boolean encrypted, int pageCount,
+                                List<PageInfo> pages, Map<String, String> metadata, List<OutlineEntry> outline) {
+    }
+
+    public record SheetInfo(String name, boolean hidden, String dimension, Integer rows, Integer columns) {
+    }
+
+    public record OfficeInspection(String filename, String type, Map<String, String> properties,
+                                   List<SheetInfo> sheets) {
+    }
+
+    public PdfInspection inspectPdf(MultipartFile file) {
+        validateFile(file);
+        if (!extension(file.getOriginalFilename()).equals("pdf")) {
+            throw new FileTypeNotSupportedException("Only .pdf files can be inspected here");
+        }
+
+        Path spooled = spool(file, ".pdf");
+        try (PDDocument document = RequestTrace.measure(RequestTrace.PARSE, () -> Loader.loadPDF(spooled.toFile()))) {
+            int pageCount = document.getNumberOfPages();
+
+            List<PageInfo> pages = new ArrayList<>(Math.min(pageCount, maxPages));
+            // Page dictionary -> page number, so outline destinations resolve without walking the page tree again
+            Map<COSDictionary, Integer> pageNumbers = new IdentityHashMap<>();
+            int number = 0;
+            for (PDPage page : document.getPages()) {
+                ConversionContext.checkpoint();
+                number++;
+                pageNumbers.put(page.getCOSObject(), number);
+                if (number <= maxPages) {
+                    PDRectangle mediaBox = page.getMediaBox();
+                    pages.add(new PageInfo(number, mediaBox.getWidth(), mediaBox.getHeight(), page.getRotation()));
+                }
+            }
+
+            PdfInspection inspection = new PdfInspection(file.getOriginalFilename(), document.getVersion(),
+                    document.isEncrypted(), pageCount, pages, readMetadata(document.getDocumentInformation()),
+                    readOutline(document, pageNumbers));
+
+            log.info("Inspected PDF {} ({} pages)", file.getOriginalFilename(), pageCount);
+            return inspection;
+        } catch (InvalidPasswordException e) {
+            throw new InvalidFileException("PDF is password protected", e);
+        } catch (IOException e) {
+            throw new InvalidFileException("Cannot read PDF " + file.getOriginalFilename() + ": " + e.getMessage(), e);
+        } finally {
+            delete(spooled);
+        }
+    }
+
+    public OfficeInspection inspectOffice(MultipartFile file) {
+        validateFile(file);
+        String extension = extension(file.getOriginalFilename());
+        if (!extension.equals("docx") && !extension.equals("xlsx")) {
+            throw new FileTypeNotSupportedException("Only .docx and .xlsx files can be inspected here");
+        }
+
+        Path spooled = spool(file, "." + extension);
+        try (ZipFile zip = RequestTrace.measure(RequestTrace.PARSE, () -> new ZipFile(spooled.toFile()))) {
+            Map<String, String> properties = new LinkedHashMap<>();
+            readProperties(zip, "docProps/core.xml", properties);
+            readProperties(zip, "docProps/app.xml", properties);
+
+            List<SheetInfo> sheets = extension.equals("xlsx") ? readSheets(zip) : List.of();
+
+            log.info("Inspected {} {} ({} sheets)", extension.toUpperCase(), file.getOriginalFilename(), sheets.size());
+            return new OfficeInspection(file.getOriginalFilename(), extension.toUpperCase(), properties, sheets);
+        } catch (ZipException e) {
+            throw new InvalidFileException("File is not a valid " + extension.toUpperCase() + " archive", e);
+        } catch (IOException | XMLStreamException e) {
+            throw new InvalidFileException("Cannot read " + file.getOriginalFilename() + ": " + e.getMessage(), e);
+        } finally {
+            delete(spooled);
+        }
+    }
+
+    private Map<String, String> readMetadata(PDDocumentInformation info) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        putIfPresent(metadata, "title", info.getTitle());
+        putIfPresent(metadata, "author", info.getAuthor());
+        putIfPresent(metadata, "subject", info.getSubject());
+        putIfPresent(metadata, "keywords", info.getKeywords());
+        putIfPresent(metadata, "creator", info.getCreator());
+        putIfPresent(metadata, "producer", info.getProducer());
+        putIfPresent(metadata, "created", formatDate(info.getCreationDate()));
+        putIfPresent(metadata, "modified", formatDate(info.getModificationDate()));
+        return metadata;
+    }
+
+    private List<OutlineEntry> readOutline(PDDocument document, Map<COSDictionary, Integer> pageNumbers) {
+        PDDocumentOutline outline = document.getDocumentCatalog().getDocumentOutline();
+        if (outline == null) {
+            return List.of();
+        }
+
+        List<OutlineEntry> entries = new ArrayList<>();
+        for (PDOutlineItem item : outline.children()) {
+            ConversionContext.checkpoint();
+            Integer page = null;
+            try {
+                PDPage target = item.findDestinationPage(document);
+                if (target != null) {
+                    page = pageNumbers.get(target.getCOSObject());
+                }
+            } catch (IOException e) {
+                log.debug("Cannot resolve outline destination for '{}': {}", item.getTitle(), e.getMessage());
+            }
+            entries.add(new OutlineEntry(item.getTitle(), page));
+        }
+        return entries;
+    }
+
+    /**
+     * Copies the simple text children of a docProps part, e.g. {@code <dc:title>} or {@code <Pages>}.
+     * Structured children such as {@code <HeadingPairs>} are skipped.
+     */
+    private void readProperties(ZipFile zip, String entryName, Map<String, String> properties)
+            throws IOException, XMLStreamException {
+        ZipEntry entry = zip.getEntry(entryName);
+        if (entry == null) {
+            return;
+        }
+
+        try (InputStream input = zip.getInputStream(entry)) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(input);
+            try {
+                int depth = 0;
+                String name = null;
+                boolean structured = false;
+                StringBuilder text = new StringBuilder();
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth == 2) {
+                            name = reader.getLocalName();
+                            structured = false;
+                            text.setLength(0);
+                        } else if (depth > 2) {
+                            structured = true;
+                        }
+                    } else if (event == XMLStreamConstants.CHARACTERS && depth == 2) {
+                        text.append(reader.getText());
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == 2 && !structured) {
+                            putIfPresent(properties, name, text.toString().strip());
+                        }
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private List<SheetInfo> readSheets(ZipFile zip) throws IOException, XMLStreamException {
+        Map<String, String> targets = readRelationshipTargets(zip, "xl/_rels/workbook.xml.rels");
+        List<SheetInfo> sheets = new ArrayList<>();
+
+        ZipEntry workbook = zip.getEntry("xl/workbook.xml");
+        if (workbook == null) {
+            throw new InvalidFileException("XLSX archive has no workbook part");
+        }
+
+        try (InputStream input = zip.getInputStream(workbook)) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(input);
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("sheet")) {
+                        String name = reader.getAttributeValue(null, "name");
+                        boolean hidden = reader.getAttributeValue(null, "state") != null
+                                && !"visible".equals(reader.getAttributeValue(null, "state"));
+                        String target = targets.get(reader.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id"));
+                        sheets.add(readSheet(zip, name, hidden, target));
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("sheets")) {
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return sheets;
+    }
+
+    /**
+     * Reads the {@code <dimension>} near the top of a worksheet. Only when a writer omitted it are
+     * the {@code <row>} elements streamed to find the last row.
+     */
+    private SheetInfo readSheet(ZipFile zip, String name, boolean hidden, String target)
+            throws IOException, XMLStreamException {
+        ZipEntry entry = target != null ? zip.getEntry(target) : null;
+        if (entry == null) {
+            return new SheetInfo(name, hidden, null, null, null);
+        }
+
+        try (InputStream input = zip.getInputStream(entry)) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(input);
+            try {
+                int lastRow = 0;
+                boolean inSheetData = false;
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String element = reader.getLocalName();
+                        if (element.equals("dimension")) {
+                            return fromDimension(name, hidden, reader.getAttributeValue(null, "ref"));
+                        } else if (element.equals("sheetData")) {
+                            inSheetData = true;
+                        } else if (inSheetData && element.equals("row")) {
+                            ConversionContext.checkpoint();
+                            String r = reader.getAttributeValue(null, "r");
+                            lastRow = r != null ? Integer.parseInt(r) : lastRow + 1;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("sheetData")) {
+                        break;
+                    }
+                }
+                return new SheetInfo(name, hidden, null, lastRow, null);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private Map<String, String> readRelationshipTargets(ZipFile zip, String entryName)
+            throws IOException, XMLStreamException {
+        Map<String, String> targets = new HashMap<>();
+        ZipEntry entry = zip.getEntry(entryName);
+        if (entry == null) {
+            return targets;
+        }
+
+        try (InputStream input = zip.getInputStream(entry)) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(input);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && reader.getLocalName().equals("Relationship")) {
+                        String target = reader.getAttributeValue(null, "Target");
+                        if (target != null) {
+                            targets.put(reader.getAttributeValue(null, "Id"),
+                                    target.startsWith("/") ? target.substring(1) : "xl/" + target);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return targets;
+    }
+
+    private SheetInfo fromDimension(String name, boolean hidden, String ref) {
+        if (ref == null || ref.isBlank()) {
+            return new SheetInfo(name, hidden, null, null, null);
+        }
+
+        String[] corners = ref.split(":");
+        int[] first = parseCellReference(corners[0]);
+        int[] last = parseCellReference(corners[corners.length - 1]);
+        if (first == null || last == null) {
+            return new SheetInfo(name, hidden, ref, null, null);
+        }
+        return new SheetInfo(name, hidden, ref, last[0] - first[0] + 1, last[1] - first[1] + 1);
+    }
+
+    // "C12" -> {12, 3}
+    private int[] parseCellReference(String reference) {
+        int column = 0;
+        int i = 0;
+        while (i < reference.length() && Character.isLetter(reference.charAt(i))) {
+            column = column * 26 + (Character.toUpperCase(reference.charAt(i)) - 'A' + 1);
+            i++;
+        }
+        if (column == 0 || i == reference.length()) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(reference.substring(i)), column};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void validateFile(MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            throw new InvalidFileException("File is empty or null");
+        }
+    }
+
+    private String extension(String filename) {
+        if (filename == null) {
+            return "";
+        }
+        int idx = filename.lastIndexOf('.');
+        return idx >= 0 ? filename.substring(idx + 1).toLowerCase() : "";
+    }
+
+    // Multipart uploads above the size threshold are already on disk, in which case transferTo moves them
+    private Path spool(MultipartFile file, String suffix) {
+        try {
+            Path directory = Files.createDirectories(Path.of(tempDirectory));
+            Path spooled = Files.createTempFile(directory, "inspect-", suffix);
+            file.transferTo(spooled);
+            return spooled;
+        } catch (IOException e) {
+            throw new InvalidFileException("Cannot spool upload " + file.getOriginalFilename(), e);
+        }
+    }
+
+    private void delete(Path spooled) {
+        try {
+            Files.deleteIfExists(spooled);
+        } catch (IOException e) {
+            log.warn("Failed to delete spooled file {}: {}", spooled, e.getMessage());
+        }
+    }
+
+    private static void putIfPresent(Map<String, String> target, String key, String value) {
+        if (value != null && !value.isBlank()) {
+            target.put(key, value);
+        }
+    }
+
+    private static String formatDate(Calendar calendar) {
+        return calendar != null ? calendar.toInstant().toString() : null;
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
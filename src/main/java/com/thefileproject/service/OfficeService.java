@@ -1,8 +1,12 @@
 package com.thefileproject.service;
 
+import com.thefileproject.tracing.RequestTrace;
+import com.thefileproject.util.CancellableOutputStream;
+import com.thefileproject.util.ConversionContext;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
@@ -18,20 +22,32 @@ public class OfficeService {
 
 
     public byte[] convertPdfToDocx(MultipartFile file) {
-        try (PDDocument pdf = Loader.loadPDF(file.getBytes());
+        try (PDDocument pdf = RequestTrace.measure(RequestTrace.PARSE, () -> Loader.loadPDF(file.getBytes()));
              ByteArrayOutputStream output = new ByteArrayOutputStream();
              XWPFDocument docx = new XWPFDocument()) {
 
-            PDFTextStripper stripper = new PDFTextStripper();
-            String text = stripper.getText(pdf);
-
-            for (String line : text.split("\n")) {
-                var p = docx.createParagraph();
-                var run = p.createRun();
-                run.setText(line);
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM)) {
+                PDFTextStripper stripper = new PDFTextStripper() {
+                    @Override
+                    protected void startPage(PDPage page) throws IOException {
+                        ConversionContext.checkpoint();
+                        super.startPage(page);
+                    }
+                };
+                String text = stripper.getText(pdf);
+
+                for (String line : text.split("\n")) {
+                    ConversionContext.checkpoint();
+                    var p = docx.createParagraph();
+                    var run = p.createRun();
+                    run.setText(line);
+                }
             }
 
-            docx.write(output);
+            ConversionContext.checkpoint();
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.SERIALIZE)) {
+                CancellableOutputStream.writeTo(output, docx::write);
+            }
             return output.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException("PDF to DOCX conversion failed: " + e.getMessage(), e);
@@ -41,19 +57,26 @@ public class OfficeService {
 
 
     public byte[] convertDocxToXlsx(MultipartFile file) {
-        try (XWPFDocument docx = new XWPFDocument(file.getInputStream());
+        try (XWPFDocument docx = RequestTrace.measure(RequestTrace.PARSE,
+                () -> new XWPFDocument(file.getInputStream()));
              ByteArrayOutputStream output = new ByteArrayOutputStream();
              XSSFWorkbook workbook = new XSSFWorkbook()) {
 
             Sheet sheet = workbook.createSheet("From DOCX");
 
-            int rowIndex = 0;
-            for (var para : docx.getParagraphs()) {
-                Row row = sheet.createRow(rowIndex++);
-                row.createCell(0).setCellValue(para.getText());
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM)) {
+                int rowIndex = 0;
+                for (var para : docx.getParagraphs()) {
+                    ConversionContext.checkpoint();
+                    Row row = sheet.createRow(rowIndex++);
+                    row.createCell(0).setCellValue(para.getText());
+                }
             }
 
-            workbook.write(output);
+            ConversionContext.checkpoint();
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.SERIALIZE)) {
+                CancellableOutputStream.writeTo(output, workbook::write);
+            }
             return output.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException("DOCX to XLSX conversion failed: " + e.getMessage(), e);
@@ -62,23 +85,30 @@ public class OfficeService {
 
 
     public byte[] convertXlsxToDocx(MultipartFile file) {
-        try (XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream());
+        try (XSSFWorkbook workbook = RequestTrace.measure(RequestTrace.PARSE,
+                () -> new XSSFWorkbook(file.getInputStream()));
              ByteArrayOutputStream output = new ByteArrayOutputStream();
              XWPFDocument doc = new XWPFDocument()) {
 
-            Sheet sheet = workbook.getSheetAt(0);
-            for (Row row : sheet) {
-                var p = doc.createParagraph();
-                var run = p.createRun();
-
-                StringBuilder line = new StringBuilder();
-                for (Cell cell : row) {
-                    line.append(getCellValueAsString(cell)).append("\t");
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM)) {
+                Sheet sheet = workbook.getSheetAt(0);
+                for (Row row : sheet) {
+                    ConversionContext.checkpoint();
+                    var p = doc.createParagraph();
+                    var run = p.createRun();
+
+                    StringBuilder line = new StringBuilder();
+                    for (Cell cell : row) {
+                        line.append(getCellValueAsString(cell)).append("\t");
+                    }
+                    run.setText(line.toString().trim());
                 }
-                run.setText(line.toString().trim());
             }
 
-            doc.write(output);
+            ConversionContext.checkpoint();
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.SERIALIZE)) {
+                CancellableOutputStream.writeTo(output, doc::write);
+            }
             return output.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException("XLSX to DOCX conversion failed: " + e.getMessage(), e);
@@ -1,5 +1,8 @@
 package com.thefileproject.service;
 
+import com.thefileproject.tracing.RequestTrace;
+import com.thefileproject.util.CancellableOutputStream;
+import com.thefileproject.util.ConversionContext;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pdfbox.pdmodel.*;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
@@ -34,11 +37,28 @@ public class PdfService {
 
 
     public byte[] convertDocxToPdf(MultipartFile file) {
-        try (XWPFDocument document = new XWPFDocument(file.getInputStream());
-             ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+        try (XWPFDocument document = RequestTrace.measure(RequestTrace.PARSE,
+                () -> new XWPFDocument(file.getInputStream()))) {
+            return convertDocumentToPdf(document);
+        } catch (IOException e) {
+            throw new RuntimeException("DOCX to PDF conversion failed: " + e.getMessage(), e);
+        }
+    }
 
-            PdfOptions options = PdfOptions.create();
-            PdfConverter.getInstance().convert(document, outputStream, options);
+
+    /**
+     * Converts an already parsed DOCX, e.g. a pre-parsed template filled with data.
+     */
+    public byte[] convertDocumentToPdf(XWPFDocument document) {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+
+            ConversionContext.checkpoint();
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM)) {
+                PdfOptions options = PdfOptions.create();
+                CancellableOutputStream.writeTo(outputStream,
+                        out -> PdfConverter.getInstance().convert(document, out, options));
+            }
+            ConversionContext.checkpoint();
 
             return outputStream.toByteArray();
         } catch (IOException e) {
@@ -48,8 +68,9 @@ public class PdfService {
 
 
     public byte[] convertXlsxToPdf(MultipartFile file) {
-        try (XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream())) {
-            return convertWorkbookToPdf(workbook);
+        try (XSSFWorkbook workbook = RequestTrace.measure(RequestTrace.PARSE,
+                () -> new XSSFWorkbook(file.getInputStream()))) {
+            return workbookToPdf(workbook);
         } catch (IOException e) {
             throw new RuntimeException("XLSX to PDF conversion failed: " + e.getMessage(), e);
         }
@@ -57,14 +78,27 @@ public class PdfService {
 
 
     public byte[] convertXlsToPdf(MultipartFile file) {
-        try (HSSFWorkbook workbook = new HSSFWorkbook(file.getInputStream())) {
-            return convertWorkbookToPdf(workbook);
+        try (HSSFWorkbook workbook = RequestTrace.measure(RequestTrace.PARSE,
+                () -> new HSSFWorkbook(file.getInputStream()))) {
+            return workbookToPdf(workbook);
         } catch (IOException e) {
             throw new RuntimeException("XLS to PDF conversion failed: " + e.getMessage(), e);
         }
     }
 
 
+    /**
+     * Converts an already parsed workbook, e.g. a pre-parsed template filled with data.
+     */
+    public byte[] convertWorkbookToPdf(Workbook workbook) {
+        try {
+            return workbookToPdf(workbook);
+        } catch (IOException e) {
+            throw new RuntimeException("Workbook to PDF conversion failed: " + e.getMessage(), e);
+        }
+    }
+
+
     public byte[] convertPdfToPdf(MultipartFile file) {
         try {
             return file.getBytes();
@@ -81,12 +115,14 @@ public class PdfService {
             PDPage page = new PDPage(PDRectangle.A4);
             document.addPage(page);
 
-            try (PDPageContentStream cs = new PDPageContentStream(document, page)) {
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM);
+                 PDPageContentStream cs = new PDPageContentStream(document, page)) {
                 cs.beginText();
                 cs.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
                 cs.newLineAtOffset(50, 750);
 
                 for (String line : text.split("\n")) {
+                    ConversionContext.checkpoint();
                     cs.showText(line);
                     cs.newLineAtOffset(0, -15);
                 }
@@ -94,18 +130,21 @@ public class PdfService {
                 cs.endText();
             }
 
-            document.save(output);
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.SERIALIZE)) {
+                CancellableOutputStream.writeTo(output, document::save);
+            }
             return output.toByteArray();
         }
     }
 
-    private byte[] convertWorkbookToPdf(Workbook workbook) throws IOException {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            PDDocument pdfDoc = new PDDocument();
+    private byte[] workbookToPdf(Workbook workbook) throws IOException {
+        try (PDDocument pdfDoc = new PDDocument();
+             ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
             PDPage page = new PDPage(PDRectangle.A4);
             pdfDoc.addPage(page);
 
-            try (PDPageContentStream cs = new PDPageContentStream(pdfDoc, page)) {
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM);
+                 PDPageContentStream cs = new PDPageContentStream(pdfDoc, page)) {
                 cs.beginText();
                 cs.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 10);
                 cs.newLineAtOffset(50, 750);
@@ -114,6 +153,7 @@ public class PdfService {
                 int lastRowNum = Math.min(sheet.getLastRowNum(), 100);
 
                 for (int i = 0; i <= lastRowNum; i++) {
+                    ConversionContext.checkpoint();
                     Row row = sheet.getRow(i);
                     if (row == null) continue;
 
@@ -131,8 +171,9 @@ public class PdfService {
                 cs.endText();
             }
 
-            pdfDoc.save(outputStream);
-            pdfDoc.close();
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.SERIALIZE)) {
+                CancellableOutputStream.writeTo(outputStream, pdfDoc::save);
+            }
             return outputStream.toByteArray();
         }
     }
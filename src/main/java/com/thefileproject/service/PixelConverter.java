@@ -0,0 +1,194 @@
+package com.thefileproject.service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.stream.IntStream;
+
+/**
+ * Alpha flattening that works directly on the backing pixel arrays instead of going through
+ * {@code Graphics2D.drawImage}. Common raster layouts get a tight per-row loop over the
+ * {@code int[]}/{@code byte[]} data; anything else goes through {@link BufferedImage#getRGB}
+ * one row at a time. Large images are split into row bands converted in parallel.
+ */
+final class PixelConverter {
+
+    private static final int PARALLEL_THRESHOLD_PIXELS = 1 << 20;
+    private static final int BAND_HEIGHT = 128;
+
+    private PixelConverter() {
+    }
+
+    /**
+     * Composites {@code source} over an opaque {@code background} (0xRRGGBB) into a new
+     * {@link BufferedImage#TYPE_INT_RGB} image, equivalent to source-over drawing onto a filled canvas.
+     */
+    static BufferedImage flattenToRgb(BufferedImage source, int background) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] targetPixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+
+        RowKernel kernel = selectKernel(source, targetPixels, background & 0xFFFFFF);
+
+        if ((long) width * height < PARALLEL_THRESHOLD_PIXELS) {
+            kernel.convert(0, height);
+        } else {
+            int bands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+            IntStream.range(0, bands).parallel().forEach(band -> {
+                int startRow = band * BAND_HEIGHT;
+                kernel.convert(startRow, Math.min(height, startRow + BAND_HEIGHT));
+            });
+        }
+
+        return target;
+    }
+
+    private static RowKernel selectKernel(BufferedImage source, int[] target, int background) {
+        int width = source.getWidth();
+        Raster raster = source.getRaster();
+        boolean rootRaster = raster.getParent() == null && raster.getMinX() == 0 && raster.getMinY() == 0;
+
+        if (rootRaster && raster.getDataBuffer() instanceof DataBufferInt intBuffer
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel) {
+            int[] pixels = intBuffer.getData();
+            int offset = intBuffer.getOffset();
+            int stride = sampleModel.getScanlineStride();
+
+            switch (source.getType()) {
+                case BufferedImage.TYPE_INT_RGB:
+                    return (startRow, endRow) -> {
+                        for (int y = startRow; y < endRow; y++) {
+                            System.arraycopy(pixels, offset + y * stride, target, y * width, width);
+                        }
+                    };
+                case BufferedImage.TYPE_INT_ARGB:
+                    return (startRow, endRow) -> {
+                        for (int y = startRow; y < endRow; y++) {
+                            int in = offset + y * stride;
+                            int out = y * width;
+                            for (int x = 0; x < width; x++) {
+                                target[out + x] = blend(pixels[in + x], background);
+                            }
+                        }
+                    };
+                case BufferedImage.TYPE_INT_ARGB_PRE:
+                    return (startRow, endRow) -> {
+                        for (int y = startRow; y < endRow; y++) {
+                            int in = offset + y * stride;
+                            int out = y * width;
+                            for (int x = 0; x < width; x++) {
+                                target[out + x] = blendPremultiplied(pixels[in + x], background);
+                            }
+                        }
+                    };
+                default:
+                    break;
+            }
+        }
+
+        if (rootRaster && raster.getDataBuffer() instanceof DataBufferByte byteBuffer
+                && raster.getSampleModel() instanceof ComponentSampleModel sampleModel) {
+            byte[] pixels = byteBuffer.getData();
+            int offset = byteBuffer.getOffset();
+            int stride = sampleModel.getScanlineStride();
+
+            switch (source.getType()) {
+                case BufferedImage.TYPE_3BYTE_BGR:
+                    return (startRow, endRow) -> {
+                        for (int y = startRow; y < endRow; y++) {
+                            int in = offset + y * stride;
+                            int out = y * width;
+                            for (int x = 0; x < width; x++, in += 3) {
+                                target[out + x] = (pixels[in + 2] & 0xFF) << 16
+                                        | (pixels[in + 1] & 0xFF) << 8
+                                        | (pixels[in] & 0xFF);
+                            }
+                        }
+                    };
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    return (startRow, endRow) -> {
+                        for (int y = startRow; y < endRow; y++) {
+                            int in = offset + y * stride;
+                            int out = y * width;
+                            for (int x = 0; x < width; x++, in += 4) {
+                                int argb = (pixels[in] & 0xFF) << 24
+                                        | (pixels[in + 3] & 0xFF) << 16
+                                        | (pixels[in + 2] & 0xFF) << 8
+                                        | (pixels[in + 1] & 0xFF);
+                                target[out + x] = blend(argb, background);
+                            }
+                        }
+                    };
+                case BufferedImage.TYPE_BYTE_GRAY:
+                    return (startRow, endRow) -> {
+                        for (int y = startRow; y < endRow; y++) {
+                            int in = offset + y * stride;
+                            int out = y * width;
+                            for (int x = 0; x < width; x++) {
+                                int gray = pixels[in + x] & 0xFF;
+                                target[out + x] = gray << 16 | gray << 8 | gray;
+                            }
+                        }
+                    };
+                default:
+                    break;
+            }
+        }
+
+        // Indexed, 16-bit, custom colour spaces: let the image's ColorModel produce sRGB ARGB per row
+        return (startRow, endRow) -> {
+            int[] row = new int[width];
+            for (int y = startRow; y < endRow; y++) {
+                source.getRGB(0, y, width, 1, row, 0, width);
+                int out = y * width;
+                for (int x = 0; x < width; x++) {
+                    target[out + x] = blend(row[x], background);
+                }
+            }
+        };
+    }
+
+    private static int blend(int argb, int background) {
+        int alpha = argb >>> 24;
+        if (alpha == 0xFF) {
+            return argb & 0xFFFFFF;
+        }
+        if (alpha == 0) {
+            return background;
+        }
+
+        int inverse = 0xFF - alpha;
+        int red = divideBy255(((argb >> 16) & 0xFF) * alpha + ((background >> 16) & 0xFF) * inverse);
+        int green = divideBy255(((argb >> 8) & 0xFF) * alpha + ((background >> 8) & 0xFF) * inverse);
+        int blue = divideBy255((argb & 0xFF) * alpha + (background & 0xFF) * inverse);
+        return red << 16 | green << 8 | blue;
+    }
+
+    private static int blendPremultiplied(int argb, int background) {
+        int alpha = argb >>> 24;
+        if (alpha == 0xFF) {
+            return argb & 0xFFFFFF;
+        }
+
+        int inverse = 0xFF - alpha;
+        int red = ((argb >> 16) & 0xFF) + divideBy255(((background >> 16) & 0xFF) * inverse);
+        int green = ((argb >> 8) & 0xFF) + divideBy255(((background >> 8) & 0xFF) * inverse);
+        int blue = (argb & 0xFF) + divideBy255((background & 0xFF) * inverse);
+        return Math.min(red, 0xFF) << 16 | Math.min(green, 0xFF) << 8 | Math.min(blue, 0xFF);
+    }
+
+    // Exact rounded x / 255 for x in [0, 255 * 255] without a division
+    private static int divideBy255(int value) {
+        int rounded = value + 128;
+        return (rounded + (rounded >> 8)) >> 8;
+    }
+
+    @FunctionalInterface
+    private interface RowKernel {
+        void convert(int startRow, int endRow);
+    }
+}
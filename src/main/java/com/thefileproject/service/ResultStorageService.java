@@ -0,0 +1,293 @@
+package com.thefileproject.service;
+
+import com.thefileproject.exception.custom_exception_classes.FileConversionException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps conversion results on disk for a limited time so clients can re-download them
+ * (with ranges, conditional requests and compression) without converting again.
+ * <p>
+ * A result expires {@code file.result.ttl-minutes} after it was last stored or downloaded, and
+ * the least recently used results are evicted early once the stored bytes exceed
+ * {@code file.result.max-total-mb}.
+ */
+@Slf4j
+@Service
+public class ResultStorageService {
+
+    private static final String RESULT_PATH_PREFIX = "/api/v1/results/";
+
+    private static final List<String> COMPRESSIBLE_SUBTYPES = List.of(
+            "pdf", "csv", "json", "xml",
+            "vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+
+    // Gzip variants that save less than this are dropped and the identity file is served instead
+    private static final double MIN_GZIP_SAVING = 0.10;
+
+    private final Path resultDirectory;
+    private final Duration timeToLive;
+    private final long maxTotalBytes;
+    private final Map<String, StoredResult> results = new ConcurrentHashMap<>();
+    private final Map<String, Optional<Path>> gzipVariants = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /**
+     * @param lastModified when the content was first written; stays stable for conditional requests
+     * @param lastAccessed when the result was last stored again or downloaded; drives expiry and eviction
+     */
+    public record StoredResult(String id, Path path, String filename, MediaType contentType,
+                               long size, Instant lastModified, Instant lastAccessed) {
+
+        StoredResult touched(Instant at) {
+            return new StoredResult(id, path, filename, contentType, size, lastModified, at);
+        }
+
+        public String etag() {
+            return "\"" + id + "\"";
+        }
+
+        public String gzipEtag() {
+            return "\"" + id + "-gzip\"";
+        }
+
+        public String location() {
+            return RESULT_PATH_PREFIX + id;
+        }
+    }
+
+    public ResultStorageService(@Value("${file.upload.temp-dir}") String tempDirectory,
+                                @Value("${file.result.ttl-minutes:60}") long ttlMinutes,
+                                @Value("${file.result.max-total-mb:1024}") long maxTotalMb) {
+        this.resultDirectory = Path.of(tempDirectory, "results");
+        this.timeToLive = Duration.ofMinutes(ttlMinutes);
+        this.maxTotalBytes = maxTotalMb * 1024 * 1024;
+
+        try {
+            Files.createDirectories(resultDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create result directory " + resultDirectory, e);
+        }
+    }
+
+    public StoredResult store(byte[] data, String filename, MediaType contentType) {
+        String id = contentHash(data);
+        Instant now = Instant.now();
+
+        // Same content converted again: extend its lifetime. The filename stays the one it was first
+        // stored under, since every client that converted this content shares the location
+        StoredResult refreshed = results.computeIfPresent(id, (key, existing) -> existing.touched(now));
+        if (refreshed != null && Files.exists(refreshed.path())) {
+            return refreshed;
+        }
+
+        try {
+            Path target = resultDirectory.resolve(id);
+            Path temp = Files.createTempFile(resultDirectory, id, ".part");
+            Files.write(temp, data);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // A concurrent store of the same content, or a record whose file went missing, keeps its
+            // filename and size accounting; the file at the shared path has just been rewritten
+            StoredResult fresh = new StoredResult(id, target, filename, contentType, data.length, now, now);
+            StoredResult stored = results.merge(id, fresh, (current, ignored) -> current.touched(now));
+            if (stored != fresh) {
+                return stored;
+            }
+            totalBytes.addAndGet(data.length);
+            removeGzipVariant(id);
+
+            log.debug("Stored result {} ({} bytes) for {}", id, data.length, filename);
+            evictToCapacity(id);
+            return stored;
+        } catch (IOException e) {
+            throw new FileConversionException("Failed to store conversion result", e);
+        }
+    }
+
+    public Optional<StoredResult> find(String id) {
+        StoredResult stored = results.computeIfPresent(id, (key, existing) -> existing.touched(Instant.now()));
+        if (stored == null || !Files.exists(stored.path())) {
+            return Optional.empty();
+        }
+        return Optional.of(stored);
+    }
+
+    /**
+     * Returns a gzip-compressed copy of the result, creating it on first use.
+     * Empty when the content type is not worth compressing or gzip barely shrinks it.
+     */
+    public Optional<Path> findGzipVariant(StoredResult stored) {
+        if (!isCompressible(stored.contentType())) {
+            return Optional.empty();
+        }
+
+        Optional<Path> existing = gzipVariants.get(stored.id());
+        if (existing != null) {
+            return existing;
+        }
+
+        // Compressed outside the map so other results are not blocked; a concurrent request may build a
+        // second variant, and the one that loses the publication deletes its own
+        Optional<Path> created = createGzipVariant(stored);
+        existing = gzipVariants.putIfAbsent(stored.id(), created);
+        if (existing != null) {
+            created.ifPresent(this::deleteQuietly);
+            return existing;
+        }
+        created.ifPresent(path -> totalBytes.addAndGet(sizeOf(path)));
+
+        // Discarded while compressing: its removeGzipVariant may have run before the variant was published
+        if (!results.containsKey(stored.id())) {
+            removeGzipVariant(stored.id(), created);
+            return Optional.empty();
+        }
+        return created;
+    }
+
+    @Scheduled(fixedDelayString = "${file.result.cleanup-interval-ms:300000}")
+    public void purgeExpiredResults() {
+        Instant cutoff = Instant.now().minus(timeToLive);
+
+        for (StoredResult stored : results.values()) {
+            if (stored.lastAccessed().isBefore(cutoff) && results.remove(stored.id(), stored)) {
+                discard(stored);
+                log.debug("Purged expired result {}", stored.id());
+            }
+        }
+    }
+
+    /**
+     * Drops least recently used results until the stored bytes fit {@code file.result.max-total-mb}.
+     * The result just stored is never evicted, even when it alone exceeds the limit.
+     */
+    private synchronized void evictToCapacity(String keepId) {
+        if (totalBytes.get() <= maxTotalBytes) {
+            return;
+        }
+
+        List<StoredResult> candidates = results.values().stream()
+                .filter(stored -> !stored.id().equals(keepId))
+                .sorted(Comparator.comparing(StoredResult::lastAccessed))
+                .toList();
+
+        for (StoredResult stored : candidates) {
+            if (totalBytes.get() <= maxTotalBytes) {
+                break;
+            }
+            if (results.remove(stored.id(), stored)) {
+                discard(stored);
+                log.debug("Evicted result {} to stay within {}MB", stored.id(), maxTotalBytes / (1024 * 1024));
+            }
+        }
+    }
+
+    private void discard(StoredResult stored) {
+        deleteQuietly(stored.path());
+        totalBytes.addAndGet(-stored.size());
+        removeGzipVariant(stored.id());
+    }
+
+    private void removeGzipVariant(String id) {
+        Optional<Path> gzip = gzipVariants.remove(id);
+        if (gzip != null) {
+            release(gzip);
+        }
+    }
+
+    private void removeGzipVariant(String id, Optional<Path> gzip) {
+        if (gzipVariants.remove(id, gzip)) {
+            release(gzip);
+        }
+    }
+
+    // Only the caller that removed the variant from the map releases it, so its size is subtracted once
+    private void release(Optional<Path> gzip) {
+        gzip.ifPresent(path -> {
+            totalBytes.addAndGet(-sizeOf(path));
+            deleteQuietly(path);
+        });
+    }
+
+    private long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            log.debug("Cannot size gzip variant {}: {}", path, e.getMessage());
+            return 0;
+        }
+    }
+
+    private Optional<Path> createGzipVariant(StoredResult stored) {
+        Path gzipPath;
+        try {
+            gzipPath = Files.createTempFile(resultDirectory, stored.id(), ".gz");
+        } catch (IOException e) {
+            log.warn("Failed to create gzip variant for result {}: {}", stored.id(), e.getMessage());
+            return Optional.empty();
+        }
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipPath), 64 * 1024)) {
+            Files.copy(stored.path(), out);
+        } catch (IOException e) {
+            log.warn("Failed to create gzip variant for result {}: {}", stored.id(), e.getMessage());
+            deleteQuietly(gzipPath);
+            return Optional.empty();
+        }
+
+        try {
+            if (Files.size(gzipPath) > stored.size() * (1 - MIN_GZIP_SAVING)) {
+                deleteQuietly(gzipPath);
+                return Optional.empty();
+            }
+            return Optional.of(gzipPath);
+        } catch (IOException e) {
+            deleteQuietly(gzipPath);
+            return Optional.empty();
+        }
+    }
+
+    private boolean isCompressible(MediaType contentType) {
+        return contentType.getType().equals("text") || COMPRESSIBLE_SUBTYPES.contains(contentType.getSubtype());
+    }
+
+    private String contentHash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package com.thefileproject.service;
+
+import com.thefileproject.exception.custom_exception_classes.FileConversionException;
+import com.thefileproject.exception.custom_exception_classes.FileTypeNotSupportedException;
+import com.thefileproject.exception.custom_exception_classes.InvalidFileException;
+import com.thefileproject.exception.custom_exception_classes.TemplateNotFoundException;
+import com.thefileproject.tracing.RequestTrace;
+import com.thefileproject.util.ConversionContext;
+import com.thefileproject.util.InMemoryMultipartFile;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFooter;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.impl.xb.xmlschema.SpaceAttribute;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTText;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of DOCX/XLSX templates that are rendered to PDF repeatedly with different data.
+ * <p>
+ * On registration the template is parsed once to find its {@code ${placeholder}} locations.
+ * Each template then keeps a few fully parsed instances (styles, numbering, themes and fonts
+ * already loaded) ready; a render takes one, fills the recorded locations and converts it, while
+ * a background worker parses a replacement. The registry is bounded by count and by the estimated
+ * memory of the sources and pooled instances, least recently used first out; that memory is
+ * retained against the admission budget so conversions are only admitted into what is left.
+ * <p>
+ * POI cannot copy a parsed document and rendering mutates it, so every render still costs one
+ * parse: the pool only moves that parse off the request path for bursts of up to
+ * {@code file.template.prepared-per-template} renders. Under sustained load the pool runs dry and
+ * renders parse on the request thread, without queueing a second background parse.
+ */
+@Slf4j
+@Service
+public class TemplateService implements DisposableBean {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z0-9_.-]+)}");
+
+    private final int maxTemplates;
+    private final long maxTotalBytes;
+    private final int preparedPerTemplate;
+    private final long maxTemplateBytes;
+    private final PdfService pdfService;
+    private final AdmissionService admissionService;
+    private final ExecutorService preparer = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "template-preparer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, PreparedTemplate> templates;
+    // Estimated memory of all registered templates, guarded by the templates map
+    private long totalBytes;
+
+    public enum TemplateType { DOCX, XLSX }
+
+    public record TemplateInfo(String id, String filename, TemplateType type,
+                               Set<String> placeholders, Instant registeredAt) {
+    }
+
+    private record CellLocation(int sheet, int row, int column) {
+    }
+
+    // A <w:t> node and where its original text starts within the paragraph text
+    private record TextNode(CTText node, int start) {
+    }
+
+    public TemplateService(@Value("${file.template.max-entries:32}") int maxTemplates,
+                           @Value("${file.template.max-total-mb:128}") long maxTotalMb,
+                           @Value("${file.template.prepared-per-template:2}") int preparedPerTemplate,
+                           @Value("${file.template.max-size-mb:10}") long maxTemplateSizeMb,
+                           PdfService pdfService,
+                           AdmissionService admissionService) {
+        this.maxTemplates = maxTemplates;
+        this.maxTotalBytes = maxTotalMb * 1024 * 1024;
+        this.preparedPerTemplate = Math.max(1, preparedPerTemplate);
+        this.maxTemplateBytes = maxTemplateSizeMb * 1024 * 1024;
+        this.pdfService = pdfService;
+        this.admissionService = admissionService;
+        this.templates = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true));
+    }
+
+    public TemplateInfo register(MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            throw new InvalidFileException("File is empty or null");
+        }
+        if (file.getSize() > maxTemplateBytes) {
+            throw new InvalidFileException("Template exceeds maximum size of " + maxTemplateBytes / (1024 * 1024) + "MB");
+        }
+
+        TemplateType type = resolveType(file.getOriginalFilename());
+
+        try {
+            byte[] source = file.getBytes();
+            String id = contentHash(source);
+
+            PreparedTemplate existing = templates.get(id);
+            if (existing != null) {
+                return existing.info;
+            }
+
+            // The source plus the parsed copies kept in the pool; the copy a render works on is
+            // covered by that render's own admission
+            long footprint = source.length + preparedPerTemplate
+                    * admissionService.estimate(file, AdmissionService.ImageOutput.FULL_RASTER).memoryBytes();
+            if (footprint > maxTotalBytes) {
+                throw new InvalidFileException("Template needs an estimated " + footprint / (1024 * 1024) +
+                        "MB once parsed, more than the template capacity of " + maxTotalBytes / (1024 * 1024) + "MB");
+            }
+
+            PreparedTemplate template = new PreparedTemplate(id, file.getOriginalFilename(), type, source, footprint);
+            synchronized (templates) {
+                existing = templates.putIfAbsent(id, template);
+                if (existing == null) {
+                    totalBytes += footprint;
+                    evictToCapacity(id);
+                }
+            }
+            if (existing != null) {
+                template.close();
+                return existing.info;
+            }
+            template.refill();
+
+            log.info("Registered {} template {} ({}) with placeholders {}",
+                    type, id, file.getOriginalFilename(), template.info.placeholders());
+            return template.info;
+        } catch (IOException e) {
+            throw new InvalidFileException("Cannot read template " + file.getOriginalFilename(), e);
+        }
+    }
+
+    public List<TemplateInfo> list() {
+        synchronized (templates) {
+            return templates.values().stream().map(template -> template.info).toList();
+        }
+    }
+
+    public void delete(String id) {
+        PreparedTemplate template;
+        synchronized (templates) {
+            template = templates.remove(id);
+            if (template != null) {
+                totalBytes -= template.footprint;
+            }
+        }
+        if (template == null) {
+            throw new TemplateNotFoundException("Template " + id + " is not registered");
+        }
+        template.close();
+    }
+
+    public TemplateInfo get(String id) {
+        return find(id).info;
+    }
+
+    public boolean exists(String id) {
+        return templates.containsKey(id);
+    }
+
+    public byte[] renderToPdf(String id, Map<String, String> data) {
+        PreparedTemplate template = find(id);
+        Closeable pooled = template.prepared.poll();
+
+        try (Closeable document = pooled != null ? pooled
+                : RequestTrace.measure(RequestTrace.PARSE, () -> template.parse(template.info.type()))) {
+            try (RequestTrace.Phase phase = RequestTrace.phase(RequestTrace.TRANSFORM)) {
+                template.fill(document, data);
+            }
+
+            byte[] pdf = document instanceof XWPFDocument docx
+                    ? pdfService.convertDocumentToPdf(docx)
+                    : pdfService.convertWorkbookToPdf((XSSFWorkbook) document);
+
+            log.info("Rendered template {} to PDF ({} bytes)", id, pdf.length);
+            return pdf;
+        } catch (IOException e) {
+            throw new FileConversionException("Failed to render template " + id, e);
+        } finally {
+            // A render that had to parse for itself leaves the pool alone, so it costs one parse rather than two
+            if (pooled != null) {
+                template.refill();
+            }
+        }
+    }
+
+    /**
+     * The registered template's source, e.g. for estimating what rendering it will cost.
+     */
+    public MultipartFile getSource(String id) {
+        PreparedTemplate template = find(id);
+        return new InMemoryMultipartFile(template.info.filename(), MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                template.source);
+    }
+
+    @Override
+    public void destroy() {
+        preparer.shutdownNow();
+        synchronized (templates) {
+            templates.values().forEach(PreparedTemplate::close);
+            templates.clear();
+            totalBytes = 0;
+        }
+    }
+
+    // Caller holds the templates lock
+    private void evictToCapacity(String keepId) {
+        Iterator<PreparedTemplate> eldest = templates.values().iterator();
+        while ((templates.size() > maxTemplates || totalBytes > maxTotalBytes) && eldest.hasNext()) {
+            PreparedTemplate template = eldest.next();
+            if (template.info.id().equals(keepId)) {
+                continue;
+            }
+            eldest.remove();
+            totalBytes -= template.footprint;
+            log.info("Evicting template {} ({})", template.info.id(), template.info.filename());
+            template.close();
+        }
+    }
+
+    private PreparedTemplate find(String id) {
+        PreparedTemplate template = templates.get(id);
+        if (template == null) {
+            throw new TemplateNotFoundException("Template " + id + " is not registered or has been evicted");
+        }
+        return template;
+    }
+
+    private TemplateType resolveType(String filename) {
+        String lower = filename == null ? "" : filename.toLowerCase();
+        if (lower.endsWith(".docx")) {
+            return TemplateType.DOCX;
+        }
+        if (lower.endsWith(".xlsx")) {
+            return TemplateType.XLSX;
+        }
+        throw new FileTypeNotSupportedException("Templates must be .docx or .xlsx files");
+    }
+
+    private String contentHash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String replacePlaceholders(String text, Map<String, String> data) {
+        Matcher matcher = PLACEHOLDER.matcher(text);
+        StringBuilder result = new StringBuilder();
+        while (matcher.find()) {
+            String value = data.get(matcher.group(1));
+            matcher.appendReplacement(result, Matcher.quoteReplacement(value != null ? value : matcher.group()));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * Word often splits a placeholder across runs (spell-check, edits, formatting), so placeholders are
+     * matched over the paragraph's text nodes rather than per run. Only the {@code <w:t>} nodes a
+     * placeholder covers are rewritten: the value goes into the node where it starts, the text after it
+     * stays in the node where it ends and the nodes in between are emptied. Runs, their formatting and
+     * any tabs or breaks between the nodes stay where they are.
+     */
+    static void fillParagraph(XWPFParagraph paragraph, Map<String, String> data) {
+        List<TextNode> nodes = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (XWPFRun run : paragraph.getRuns()) {
+            collectTextNodes(run, nodes, text);
+        }
+        if (nodes.isEmpty()) {
+            return;
+        }
+
+        List<MatchResult> matches = PLACEHOLDER.matcher(text).results().toList();
+        // Right to left, so offsets of earlier matches stay valid; a node shared with a later match
+        // only changed after the point where the earlier match ends
+        for (int m = matches.size() - 1; m >= 0; m--) {
+            MatchResult match = matches.get(m);
+            String value = data.get(match.group(1));
+            if (value == null) {
+                continue;
+            }
+
+            int first = nodeAt(nodes, match.start());
+            int last = nodeAt(nodes, match.end() - 1);
+            TextNode firstNode = nodes.get(first);
+            TextNode lastNode = nodes.get(last);
+
+            String prefix = firstNode.node().getStringValue().substring(0, match.start() - firstNode.start());
+            String suffix = lastNode.node().getStringValue().substring(match.end() - lastNode.start());
+
+            if (first == last) {
+                setText(firstNode.node(), prefix + value + suffix);
+                continue;
+            }
+
+            setText(firstNode.node(), prefix + value);
+            setText(lastNode.node(), suffix);
+            for (int i = first + 1; i < last; i++) {
+                setText(nodes.get(i).node(), "");
+            }
+        }
+    }
+
+    /**
+     * Appends the run's {@code <w:t>} nodes to the paragraph text in document order. Tabs, breaks and
+     * other run content become a separator a placeholder cannot match across, as in
+     * {@link XWPFParagraph#getText()}.
+     */
+    private static void collectTextNodes(XWPFRun run, List<TextNode> nodes, StringBuilder text) {
+        try (XmlCursor cursor = run.getCTR().newCursor()) {
+            for (boolean more = cursor.toFirstChild(); more; more = cursor.toNextSibling()) {
+                String name = cursor.getName().getLocalPart();
+                if ("t".equals(name) && cursor.getObject() instanceof CTText node) {
+                    nodes.add(new TextNode(node, text.length()));
+                    text.append(node.getStringValue());
+                } else if (!"rPr".equals(name) && !"lastRenderedPageBreak".equals(name)) {
+                    text.append('\n');
+                }
+            }
+        }
+    }
+
+    private static int nodeAt(List<TextNode> nodes, int offset) {
+        int node = 0;
+        while (node + 1 < nodes.size() && nodes.get(node + 1).start() <= offset) {
+            node++;
+        }
+        return node;
+    }
+
+    private static void setText(CTText node, String text) {
+        node.setStringValue(text);
+        if (!text.isEmpty() && (Character.isWhitespace(text.charAt(0))
+                || Character.isWhitespace(text.charAt(text.length() - 1)))) {
+            node.setSpace(SpaceAttribute.Space.PRESERVE);
+        }
+    }
+
+    /**
+     * Paragraphs of the body, tables, headers and footers in a stable order, so indices recorded
+     * at registration point at the same paragraphs in every freshly parsed instance.
+     */
+    private static List<XWPFParagraph> collectParagraphs(XWPFDocument document) {
+        List<XWPFParagraph> paragraphs = new ArrayList<>();
+        collectParagraphs(document.getBodyElements(), paragraphs);
+        for (XWPFHeader header : document.getHeaderList()) {
+            collectParagraphs(header.getBodyElements(), paragraphs);
+        }
+        for (XWPFFooter footer : document.getFooterList()) {
+            collectParagraphs(footer.getBodyElements(), paragraphs);
+        }
+        return paragraphs;
+    }
+
+    private static void collectParagraphs(List<IBodyElement> elements, List<XWPFParagraph> paragraphs) {
+        for (IBodyElement element : elements) {
+            if (element instanceof XWPFParagraph paragraph) {
+                paragraphs.add(paragraph);
+            } else if (element instanceof XWPFTable table) {
+                for (XWPFTableRow row : table.getRows()) {
+                    for (XWPFTableCell cell : row.getTableCells()) {
+                        collectParagraphs(cell.getBodyElements(), paragraphs);
+                    }
+                }
+            }
+        }
+    }
+
+    private final class PreparedTemplate {
+        private final TemplateInfo info;
+        private final byte[] source;
+        private final long footprint;
+        private final AdmissionService.Retention retention;
+        private final List<Integer> paragraphLocations = new ArrayList<>();
+        private final List<CellLocation> cellLocations = new ArrayList<>();
+        private final BlockingQueue<Closeable> prepared;
+        private volatile boolean closed;
+
+        private PreparedTemplate(String id, String filename, TemplateType type, byte[] source, long footprint)
+                throws IOException {
+            this.source = source;
+            this.footprint = footprint;
+            this.prepared = new ArrayBlockingQueue<>(preparedPerTemplate);
+
+            Set<String> placeholders = new LinkedHashSet<>();
+            Closeable document = parse(type);
+            if (document instanceof XWPFDocument docx) {
+                List<XWPFParagraph> paragraphs = collectParagraphs(docx);
+                for (int i = 0; i < paragraphs.size(); i++) {
+                    ConversionContext.checkpoint();
+                    if (collectPlaceholders(paragraphs.get(i).getText(), placeholders)) {
+                        paragraphLocations.add(i);
+                    }
+                }
+            } else {
+                XSSFWorkbook workbook = (XSSFWorkbook) document;
+                for (int s = 0; s < workbook.getNumberOfSheets(); s++) {
+                    for (Row row : workbook.getSheetAt(s)) {
+                        ConversionContext.checkpoint();
+                        for (Cell cell : row) {
+                            if (cell.getCellType() == CellType.STRING
+                                    && collectPlaceholders(cell.getStringCellValue(), placeholders)) {
+                                cellLocations.add(new CellLocation(s, row.getRowNum(), cell.getColumnIndex()));
+                            }
+                        }
+                    }
+                }
+            }
+            // The instance used for scanning is untouched, so it can serve the first render
+            prepared.offer(document);
+
+            this.info = new TemplateInfo(id, filename, type, Collections.unmodifiableSet(placeholders), Instant.now());
+            this.retention = admissionService.retain(footprint);
+        }
+
+        private void fill(Closeable document, Map<String, String> data) {
+            if (document instanceof XWPFDocument docx) {
+                List<XWPFParagraph> paragraphs = collectParagraphs(docx);
+                for (int index : paragraphLocations) {
+                    ConversionContext.checkpoint();
+                    fillParagraph(paragraphs.get(index), data);
+                }
+                return;
+            }
+
+            XSSFWorkbook workbook = (XSSFWorkbook) document;
+            for (CellLocation location : cellLocations) {
+                ConversionContext.checkpoint();
+                Sheet sheet = workbook.getSheetAt(location.sheet());
+                Cell cell = sheet.getRow(location.row()).getCell(location.column());
+                cell.setCellValue(replacePlaceholders(cell.getStringCellValue(), data));
+            }
+        }
+
+        private void refill() {
+            if (closed || prepared.remainingCapacity() == 0) {
+                return;
+            }
+
+            preparer.execute(() -> {
+                if (closed || prepared.remainingCapacity() == 0) {
+                    return;
+                }
+                try {
+                    Closeable document = parse(info.type());
+                    if (closed || !prepared.offer(document)) {
+                        document.close();
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to prepare template {}: {}", info.id(), e.getMessage());
+                }
+            });
+        }
+
+        private Closeable parse(TemplateType type) throws IOException {
+            return type == TemplateType.DOCX
+                    ? new XWPFDocument(new ByteArrayInputStream(source))
+                    : new XSSFWorkbook(new ByteArrayInputStream(source));
+        }
+
+        private boolean collectPlaceholders(String text, Set<String> placeholders) {
+            if (text == null || !text.contains("${")) {
+                return false;
+            }
+
+            Matcher matcher = PLACEHOLDER.matcher(text);
+            boolean found = false;
+            while (matcher.find()) {
+                placeholders.add(matcher.group(1));
+                found = true;
+            }
+            return found;
+        }
+
+        private void close() {
+            closed = true;
+            retention.close();
+            Closeable document;
+            while ((document = prepared.poll()) != null) {
+                try {
+                    document.close();
+                } catch (IOException ignored) {
+                    // parsed from memory, nothing to release
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.thefileproject.service;
+
+import com.thefileproject.exception.custom_exception_classes.ConversionTimeoutException;
+import com.thefileproject.util.ConversionContext;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * A {@link RenderedImage} made of full-width horizontal strips that are decoded on demand with
+ * {@link ImageReadParam#setSourceRegion} and converted one strip at a time. Only readers that
+ * honour the source region are used, see {@link #supportsRegionDecoding}.
+ * <p>
+ * Strips are decoded ahead of the writer on a dedicated decoder pool, each worker using its own
+ * {@link ImageReader} over the spooled file, and dropped once the writer has moved past them. The
+ * number of strips in flight is limited by a byte budget as well as by {@code parallelism}, so memory
+ * stays bounded by the budget rather than by the core count. Writers that pull rows through
+ * {@link #getData(Rectangle)} (PNG) never see the full image.
+ * <p>
+ * Sequential codecs (PNG, baseline JPEG) have to decode every row above a region before reaching it,
+ * so each strip re-decodes the image from the top: converting n strips costs about n/2 full decodes
+ * of CPU. Parallel prefetch shortens the wall time of that work but not its total; taller strips
+ * trade memory for less redundant decoding.
+ */
+class TiledImageSource implements RenderedImage, AutoCloseable {
+
+    // Decoded strip plus its converted copy, 4 bytes per pixel each
+    static final int BYTES_PER_STRIP_PIXEL = 8;
+
+    // Readers known to honour setSourceRegion; plugins such as webp-imageio decode the whole image regardless
+    private static final Set<String> REGION_READERS = Set.of(
+            "com.sun.imageio.plugins.png.PNGImageReader",
+            "com.sun.imageio.plugins.jpeg.JPEGImageReader",
+            "com.sun.imageio.plugins.gif.GIFImageReader",
+            "com.sun.imageio.plugins.bmp.BMPImageReader");
+
+    /**
+     * Shared by all conversions and kept off the common pool: decode tasks block on
+     * {@link #readers}, and the strip converter itself may use parallel streams.
+     */
+    private static final AtomicInteger DECODER_THREADS = new AtomicInteger();
+    private static final ExecutorService DECODERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "tile-decoder-" + DECODER_THREADS.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private final int parallelism;
+    private final UnaryOperator<BufferedImage> stripConverter;
+    private final ConversionContext context;
+
+    private final BlockingQueue<ImageReader> readers;
+    private final Map<Integer, CompletableFuture<Raster>> strips = new ConcurrentHashMap<>();
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+    private int lowestRetainedStrip;
+
+    /**
+     * @param parallelism  upper bound on strips decoded concurrently, {@code <= 0} for the core count
+     * @param memoryBudget bytes that strips in flight may occupy; at least one strip is always allowed
+     */
+    TiledImageSource(Path source, int stripHeight, int parallelism, long memoryBudget,
+                     UnaryOperator<BufferedImage> stripConverter) throws IOException {
+        this.stripConverter = stripConverter;
+        this.readers = new LinkedBlockingQueue<>();
+        this.context = ConversionContext.current();
+
+        try {
+            ImageReader reader = openReader(source);
+            readers.add(reader);
+            this.width = reader.getWidth(0);
+            this.height = reader.getHeight(0);
+            this.stripHeight = Math.max(1, Math.min(stripHeight, height));
+            this.parallelism = stripsInFlight(width, this.stripHeight, parallelism, memoryBudget);
+
+            for (int i = 1; i < this.parallelism; i++) {
+                readers.add(openReader(source));
+            }
+
+            BufferedImage firstStrip = decodeStrip(0);
+            this.colorModel = firstStrip.getColorModel();
+            this.sampleModel = firstStrip.getSampleModel();
+            strips.put(0, CompletableFuture.completedFuture(firstStrip.getRaster()));
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Strips decoded concurrently for an image {@code width} pixels wide; also used by admission
+     * control so its estimate matches what the conversion will actually hold.
+     */
+    static int stripsInFlight(int width, int stripHeight, int parallelism, long memoryBudget) {
+        int limit = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        long stripBytes = Math.max(1L, (long) width * stripHeight * BYTES_PER_STRIP_PIXEL);
+        return (int) Math.max(1, Math.min(limit, memoryBudget / stripBytes));
+    }
+
+    /**
+     * Whether {@code reader} decodes only the requested region, which tiled mode relies on to keep
+     * memory bounded; also used by admission control and the tiled-mode decision.
+     */
+    static boolean supportsRegionDecoding(ImageReader reader) {
+        return REGION_READERS.contains(reader.getClass().getName());
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        if (context != null) {
+            ConversionContext.checkpoint();
+        }
+
+        for (int ahead = 0; ahead < parallelism && tileY + ahead < getNumYTiles(); ahead++) {
+            int strip = tileY + ahead;
+            strips.computeIfAbsent(strip, index -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return decodeStrip(index).getRaster();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, DECODERS));
+        }
+
+        // Writers consume rows top to bottom, so strips above the requested one are no longer needed
+        for (int strip = lowestRetainedStrip; strip < tileY; strip++) {
+            strips.remove(strip);
+        }
+        lowestRetainedStrip = Math.max(lowestRetainedStrip, tileY);
+
+        try {
+            Raster raster = strips.get(tileY).join();
+            return raster.createTranslatedChild(0, tileY * stripHeight);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof ConversionTimeoutException timeout) {
+                throw timeout;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle region = rect.intersection(getBounds());
+        WritableRaster target = Raster.createWritableRaster(
+                sampleModel.createCompatibleSampleModel(region.width, region.height),
+                new Point(region.x, region.y));
+
+        int firstStrip = region.y / stripHeight;
+        int lastStrip = (region.y + region.height - 1) / stripHeight;
+        for (int strip = firstStrip; strip <= lastStrip; strip++) {
+            Raster tile = getTile(0, strip);
+            Rectangle overlap = tile.getBounds().intersection(region);
+            target.setRect(tile.createChild(overlap.x, overlap.y, overlap.width, overlap.height,
+                    overlap.x, overlap.y, null));
+        }
+        return target;
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(getBounds());
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        Rectangle region = raster == null ? getBounds() : raster.getBounds();
+        Raster data = getData(region);
+        if (raster == null) {
+            return (WritableRaster) data;
+        }
+        raster.setRect(data);
+        return raster;
+    }
+
+    @Override
+    public void close() {
+        // Let in-flight prefetches hand their readers back before the readers are disposed
+        for (CompletableFuture<Raster> strip : strips.values()) {
+            strip.exceptionally(e -> null).join();
+        }
+        strips.clear();
+        ImageReader reader;
+        while ((reader = readers.poll()) != null) {
+            Object input = reader.getInput();
+            reader.dispose();
+            if (input instanceof ImageInputStream stream) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                    // nothing left to release
+                }
+            }
+        }
+    }
+
+    private BufferedImage decodeStrip(int index) throws IOException {
+        if (context != null) {
+            context.check();
+        }
+
+        ImageReader reader;
+        try {
+            reader = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an image reader", e);
+        }
+
+        try {
+            int y = index * stripHeight;
+            Rectangle region = new Rectangle(0, y, width, Math.min(stripHeight, height - y));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            BufferedImage strip = reader.read(0, param);
+            if (strip.getWidth() != region.width || strip.getHeight() != region.height) {
+                throw new IOException("Image reader returned " + strip.getWidth() + "x" + strip.getHeight() +
+                        " for a " + region.width + "x" + region.height + " strip");
+            }
+            return stripConverter.apply(strip);
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    private ImageReader openReader(Path source) throws IOException {
+        ImageInputStream input = new FileImageInputStream(source.toFile());
+        Iterator<ImageReader> candidates = ImageIO.getImageReaders(input);
+        while (candidates.hasNext()) {
+            ImageReader reader = candidates.next();
+            if (supportsRegionDecoding(reader)) {
+                reader.setInput(input, true, true);
+                return reader;
+            }
+            reader.dispose();
+        }
+        input.close();
+        throw new IOException("No image reader for " + source.getFileName() + " decodes regions");
+    }
+
+    private Rectangle getBounds() {
+        return new Rectangle(0, 0, width, height);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + stripHeight - 1) / stripHeight;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return stripHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
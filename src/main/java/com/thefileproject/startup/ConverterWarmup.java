@@ -0,0 +1,158 @@
+package com.thefileproject.startup;
+
+import com.thefileproject.service.ImageService;
+import com.thefileproject.service.OfficeService;
+import com.thefileproject.service.PdfService;
+import com.thefileproject.util.InMemoryMultipartFile;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs a tiny synthetic conversion through every converter before the application reports
+ * itself ready, so ImageIO plugin scanning, PDFBox font loading, POI schema loading and the
+ * XDocReport converter initialisation are not paid for by the first real requests.
+ * <p>
+ * With {@code file.warmup.exit-on-completion=true} the application exits after warm-up,
+ * which is how the CDS / AOT cache training runs in {@code pom.xml} capture these classes.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConverterWarmup implements ApplicationRunner {
+
+    private static final String DOCX_CONTENT_TYPE =
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    private static final String XLSX_CONTENT_TYPE =
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private final ImageService imageService;
+    private final PdfService pdfService;
+    private final OfficeService officeService;
+    private final MeterRegistry meterRegistry;
+    private final ConfigurableApplicationContext applicationContext;
+
+    @Value("${file.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.warmup.exit-on-completion:false}")
+    private boolean exitOnCompletion;
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (!enabled) {
+            log.info("Converter warm-up is disabled");
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        MultipartFile png = new InMemoryMultipartFile("warmup.png", "image/png", createPng());
+        warmUp("image-to-png", () -> imageService.convertToPng(png));
+        warmUp("image-to-jpg", () -> imageService.convertToJpg(png));
+        warmUp("image-to-webp", () -> imageService.convertToWebp(png));
+        warmUp("image-resize", () -> imageService.resizeImage(png, 8, 8, true));
+        warmUp("image-compress", () -> imageService.compressImage(png, 0.8f));
+
+        MultipartFile txt = new InMemoryMultipartFile("warmup.txt", "text/plain",
+                "warm-up".getBytes(StandardCharsets.UTF_8));
+        MultipartFile docx = new InMemoryMultipartFile("warmup.docx", DOCX_CONTENT_TYPE, createDocx());
+        MultipartFile xlsx = new InMemoryMultipartFile("warmup.xlsx", XLSX_CONTENT_TYPE,
+                createWorkbook(new XSSFWorkbook()));
+        MultipartFile xls = new InMemoryMultipartFile("warmup.xls", "application/vnd.ms-excel",
+                createWorkbook(new HSSFWorkbook()));
+
+        byte[] pdf = warmUp("txt-to-pdf", () -> pdfService.convertTxtToPdf(txt));
+        warmUp("docx-to-pdf", () -> pdfService.convertDocxToPdf(docx));
+        warmUp("xlsx-to-pdf", () -> pdfService.convertXlsxToPdf(xlsx));
+        warmUp("xls-to-pdf", () -> pdfService.convertXlsToPdf(xls));
+
+        if (pdf != null) {
+            MultipartFile pdfFile = new InMemoryMultipartFile("warmup.pdf", "application/pdf", pdf);
+            warmUp("pdf-to-docx", () -> officeService.convertPdfToDocx(pdfFile));
+        }
+        warmUp("docx-to-xlsx", () -> officeService.convertDocxToXlsx(docx));
+        warmUp("xlsx-to-docx", () -> officeService.convertXlsxToDocx(xlsx));
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Converter warm-up finished in {} ms", elapsedMillis);
+
+        if (exitOnCompletion) {
+            log.info("Exiting after warm-up (file.warmup.exit-on-completion=true)");
+            System.exit(SpringApplication.exit(applicationContext));
+        }
+    }
+
+    private byte[] warmUp(String step, Supplier<byte[]> conversion) {
+        long start = System.nanoTime();
+        try {
+            return conversion.get();
+        } catch (RuntimeException | LinkageError e) {
+            // A converter whose native library or classes fail to load (e.g. WebP) must not stop startup
+            log.warn("Warm-up step {} failed: {}", step, e.toString());
+            return null;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            meterRegistry.timer("app.warmup", "step", step).record(elapsed, TimeUnit.NANOSECONDS);
+            log.debug("Warm-up step {} took {} ms", step, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+    }
+
+    private byte[] createPng() throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(new Color(30, 120, 200, 160));
+            graphics.fillRect(0, 0, 16, 16);
+        } finally {
+            graphics.dispose();
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        return output.toByteArray();
+    }
+
+    private byte[] createDocx() throws IOException {
+        try (XWPFDocument document = new XWPFDocument();
+             ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            document.createParagraph().createRun().setText("warm-up");
+            document.write(output);
+            return output.toByteArray();
+        }
+    }
+
+    private byte[] createWorkbook(Workbook workbook) throws IOException {
+        try (workbook; ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            Sheet sheet = workbook.createSheet("warm-up");
+            Row row = sheet.createRow(0);
+            row.createCell(0).setCellValue("warm-up");
+            row.createCell(1).setCellValue(1);
+            workbook.write(output);
+            return output.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.thefileproject.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.thefileproject.ConversionPhase")
+@Label("Conversion Phase")
+@Category({"TheFileProject", "Conversion"})
+@Description("One phase (receive, sniff, decode, transform, encode, write...) of a conversion request")
+@StackTrace(false)
+class ConversionPhaseEvent extends jdk.jfr.Event {
+
+    @Label("Request Path")
+    String path;
+
+    @Label("Phase")
+    String phase;
+}
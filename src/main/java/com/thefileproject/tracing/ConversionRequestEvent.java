@@ -0,0 +1,24 @@
+package com.thefileproject.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.thefileproject.ConversionRequest")
+@Label("Conversion Request")
+@Category({"TheFileProject", "Conversion"})
+@Description("A complete traced HTTP request, from the first byte received to the last byte written")
+@StackTrace(false)
+class ConversionRequestEvent extends jdk.jfr.Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Request Path")
+    String path;
+
+    @Label("Status")
+    int status;
+}
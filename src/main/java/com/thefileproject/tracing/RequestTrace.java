@@ -0,0 +1,164 @@
+package com.thefileproject.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phase timings for the request running on the current thread.
+ * <p>
+ * Code under measurement wraps each phase in {@code try (var ignored = RequestTrace.phase("decode"))}.
+ * When tracing is disabled no trace is bound and {@link #phase(String)} returns a shared no-op,
+ * so instrumented code pays only for a thread-local lookup.
+ */
+public final class RequestTrace {
+
+    public static final String RECEIVE = "receive";
+    public static final String SNIFF = "sniff";
+    public static final String DECODE = "decode";
+    public static final String PARSE = "parse";
+    public static final String TRANSFORM = "transform";
+    public static final String ENCODE = "encode";
+    public static final String SERIALIZE = "serialize";
+    public static final String WRITE = "write";
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    private static final Phase NO_OP = () -> { };
+
+    private final String method;
+    private final String path;
+    private final long startNanos;
+    private final List<PhaseTiming> phases = new ArrayList<>();
+    private final ConversionRequestEvent requestEvent = new ConversionRequestEvent();
+    private final ConversionPhaseEvent sinceStartEvent = new ConversionPhaseEvent();
+
+    public record PhaseTiming(String name, long durationNanos) {
+
+        public double durationMillis() {
+            return durationNanos / 1_000_000.0;
+        }
+    }
+
+    public record Snapshot(String method, String path, int status, long startedAtMillis,
+                           double totalMillis, List<PhaseTiming> phases) {
+    }
+
+    private RequestTrace(String method, String path) {
+        this.method = method;
+        this.path = path;
+        this.startNanos = System.nanoTime();
+        if (requestEvent.isEnabled()) {
+            requestEvent.begin();
+            sinceStartEvent.begin();
+        }
+    }
+
+    static RequestTrace start(String method, String path) {
+        RequestTrace trace = new RequestTrace(method, path);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    public static Phase phase(String name) {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return NO_OP;
+        }
+        return trace.begin(name);
+    }
+
+    /**
+     * Runs {@code action} as phase {@code name}; handy for values that feed a try-with-resources header.
+     */
+    public static <T, E extends Exception> T measure(String name, PhaseAction<T, E> action) throws E {
+        try (Phase ignored = phase(name)) {
+            return action.run();
+        }
+    }
+
+    /**
+     * Records a phase that started when the request did, e.g. receiving the upload.
+     */
+    public static void markSinceStart(String name) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.phases.add(new PhaseTiming(name, System.nanoTime() - trace.startNanos));
+            trace.commit(trace.sinceStartEvent, name);
+        }
+    }
+
+    private Phase begin(String name) {
+        long phaseStart = System.nanoTime();
+        ConversionPhaseEvent event = new ConversionPhaseEvent();
+        if (event.isEnabled()) {
+            event.begin();
+        }
+        return () -> {
+            phases.add(new PhaseTiming(name, System.nanoTime() - phaseStart));
+            commit(event, name);
+        };
+    }
+
+    /**
+     * Records a phase measured elsewhere, e.g. the response write that happens after the handler.
+     */
+    void record(String name, long durationNanos) {
+        phases.add(new PhaseTiming(name, durationNanos));
+    }
+
+    private void commit(ConversionPhaseEvent event, String name) {
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.phase = name;
+            event.commit();
+        }
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Formats the phases recorded so far as a {@code Server-Timing} header value.
+     */
+    String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        for (PhaseTiming timing : phases) {
+            header.append(timing.name()).append(";dur=")
+                    .append(String.format(Locale.ROOT, "%.1f", timing.durationMillis())).append(", ");
+        }
+        header.append("total;dur=").append(String.format(Locale.ROOT, "%.1f", elapsedNanos() / 1_000_000.0));
+        return header.toString();
+    }
+
+    Snapshot finish(int status) {
+        CURRENT.remove();
+        long totalNanos = elapsedNanos();
+
+        if (requestEvent.shouldCommit()) {
+            requestEvent.method = method;
+            requestEvent.path = path;
+            requestEvent.status = status;
+            requestEvent.commit();
+        }
+
+        long startedAtMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(totalNanos);
+        return new Snapshot(method, path, status, startedAtMillis, totalNanos / 1_000_000.0, List.copyOf(phases));
+    }
+
+    @FunctionalInterface
+    public interface Phase extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    @FunctionalInterface
+    public interface PhaseAction<T, E extends Exception> {
+        T run() throws E;
+    }
+}
@@ -0,0 +1,20 @@
+package com.thefileproject.tracing;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Closes the receive phase: by the time interceptors run, the dispatcher has parsed the
+ * multipart upload, so everything since the request started was spent receiving it.
+ */
+@Component
+public class RequestTraceInterceptor implements HandlerInterceptor {
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        RequestTrace.markSinceStart(RequestTrace.RECEIVE);
+        return true;
+    }
+}
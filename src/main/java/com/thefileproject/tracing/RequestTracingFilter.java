@@ -0,0 +1,51 @@
+package com.thefileproject.tracing;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Starts a {@link RequestTrace} for each API request and, once the response has been written,
+ * records the write phase and stores the finished trace in the {@link SlowRequestLog}.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class RequestTracingFilter extends OncePerRequestFilter {
+
+    static final String WRITE_START_ATTRIBUTE = RequestTracingFilter.class.getName() + ".writeStart";
+
+    private final SlowRequestLog slowRequestLog;
+
+    @Value("${file.tracing.enabled:true}")
+    private boolean enabled;
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return !enabled || !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+                                    @NonNull FilterChain filterChain) throws ServletException, IOException {
+        RequestTrace trace = RequestTrace.start(request.getMethod(), request.getRequestURI());
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.getAttribute(WRITE_START_ATTRIBUTE) instanceof Long writeStart) {
+                trace.record(RequestTrace.WRITE, System.nanoTime() - writeStart);
+            }
+            slowRequestLog.add(trace.finish(response.getStatus()));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.thefileproject.tracing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free ring buffer of the most recent traced requests. Writers claim a slot with a single
+ * atomic increment and overwrite the oldest entry; readers copy the buffer and sort the copy.
+ */
+@Component
+public class SlowRequestLog {
+
+    private final AtomicReferenceArray<RequestTrace.Snapshot> entries;
+    private final AtomicLong cursor = new AtomicLong();
+
+    public SlowRequestLog(@Value("${file.tracing.buffer-size:256}") int capacity) {
+        this.entries = new AtomicReferenceArray<>(Math.max(1, capacity));
+    }
+
+    public void add(RequestTrace.Snapshot snapshot) {
+        int slot = (int) Math.floorMod(cursor.getAndIncrement(), (long) entries.length());
+        entries.set(slot, snapshot);
+    }
+
+    public List<RequestTrace.Snapshot> slowest(int limit) {
+        List<RequestTrace.Snapshot> snapshots = new ArrayList<>(entries.length());
+        for (int i = 0; i < entries.length(); i++) {
+            RequestTrace.Snapshot snapshot = entries.get(i);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+
+        snapshots.sort(Comparator.comparingDouble(RequestTrace.Snapshot::totalMillis).reversed());
+        return snapshots.subList(0, Math.min(limit, snapshots.size()));
+    }
+}
@@ -0,0 +1,56 @@
+package com.thefileproject.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that checks the current {@link ConversionContext} on every write, so a
+ * serialiser (iText, POI, PDFBox) that runs past the deadline is stopped mid-output instead
+ * of finishing its work first.
+ */
+public class CancellableOutputStream extends FilterOutputStream {
+
+    private static final int SINGLE_BYTE_CHECK_INTERVAL = 4096;
+
+    private int singleBytesSinceCheck;
+
+    public CancellableOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Runs {@code writer} against a cancellable view of {@code target}. Libraries wrap the
+     * exception thrown from the stream (POI in {@code OpenXML4JRuntimeException}, XDocReport in
+     * {@code XWPFConverterException}), so a failure of a cancelled conversion is rethrown as the
+     * cancellation itself.
+     */
+    public static <E extends Exception> void writeTo(OutputStream target, StreamWriter<E> writer) throws E {
+        try {
+            writer.write(new CancellableOutputStream(target));
+        } catch (Exception e) {
+            ConversionContext.checkpoint();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (++singleBytesSinceCheck >= SINGLE_BYTE_CHECK_INTERVAL) {
+            singleBytesSinceCheck = 0;
+            ConversionContext.checkpoint();
+        }
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ConversionContext.checkpoint();
+        out.write(b, off, len);
+    }
+
+    @FunctionalInterface
+    public interface StreamWriter<E extends Exception> {
+        void write(OutputStream out) throws E;
+    }
+}
@@ -0,0 +1,132 @@
+package com.thefileproject.util;
+
+import com.thefileproject.exception.custom_exception_classes.ConversionTimeoutException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Deadline and cancellation state for the conversion running on the current thread.
+ * <p>
+ * Converters call {@link #checkpoint()} from their loops (per row, page, paragraph), wrap
+ * blocking codec calls in {@link #onAbort(Runnable)} and hand serialisers a
+ * {@link CancellableOutputStream} so a cancelled conversion stops promptly.
+ * Both are no-ops when no context is open, e.g. during start-up warm-up.
+ */
+public final class ConversionContext implements AutoCloseable {
+
+    public static final String TIMEOUT = "timeout";
+    /**
+     * The servlet container reports a disconnect only while the response body is written, i.e.
+     * after the conversion has finished, so this reason never stops work.
+     */
+    public static final String CLIENT_DISCONNECT_AFTER_COMPLETION = "client_disconnect_after_completion";
+
+    private static final ThreadLocal<ConversionContext> CURRENT = new ThreadLocal<>();
+
+    private final Duration timeout;
+    private final long deadlineNanos;
+    private final List<Runnable> abortHooks = new CopyOnWriteArrayList<>();
+    private volatile String cancelReason;
+    private volatile boolean workAborted;
+
+    private ConversionContext(Duration timeout) {
+        this.timeout = timeout;
+        this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+    }
+
+    public static ConversionContext open(Duration timeout) {
+        ConversionContext context = new ConversionContext(timeout);
+        CURRENT.set(context);
+        return context;
+    }
+
+    public static ConversionContext current() {
+        return CURRENT.get();
+    }
+
+    public static void checkpoint() {
+        ConversionContext context = CURRENT.get();
+        if (context != null) {
+            context.check();
+        }
+    }
+
+    /**
+     * Registers {@code hook} (typically {@code ImageReader::abort}) to be run if the conversion is
+     * cancelled while the returned handle is open.
+     */
+    public static AbortRegistration onAbort(Runnable hook) {
+        ConversionContext context = CURRENT.get();
+        if (context == null) {
+            return () -> { };
+        }
+
+        context.abortHooks.add(hook);
+        if (context.cancelReason != null) {
+            hook.run();
+        }
+        return () -> context.abortHooks.remove(hook);
+    }
+
+    public void cancel(String reason) {
+        if (cancelReason != null) {
+            return;
+        }
+
+        cancelReason = reason;
+        for (Runnable hook : abortHooks) {
+            hook.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelReason != null || System.nanoTime() - deadlineNanos > 0;
+    }
+
+    public String getCancelReason() {
+        return cancelReason;
+    }
+
+    /**
+     * Whether a converter actually stopped because of the cancellation, as opposed to the
+     * deadline passing after the work had already finished.
+     */
+    public boolean isWorkAborted() {
+        return workAborted;
+    }
+
+    /**
+     * {@link #checkpoint()} for threads that work on behalf of this conversion without it being their
+     * current context, such as decoder pools.
+     */
+    public void check() {
+        if (cancelReason == null && System.nanoTime() - deadlineNanos > 0) {
+            cancelReason = TIMEOUT;
+        }
+        if (cancelReason != null) {
+            workAborted = true;
+        }
+        if (TIMEOUT.equals(cancelReason)) {
+            throw new ConversionTimeoutException("Conversion exceeded the " + timeout.toSeconds() + " second limit");
+        }
+        if (cancelReason != null) {
+            throw new ConversionTimeoutException("Conversion was cancelled: " + cancelReason);
+        }
+    }
+
+    @Override
+    public void close() {
+        abortHooks.clear();
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    @FunctionalInterface
+    public interface AbortRegistration extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -3,7 +3,7 @@ package com.thefileproject;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "file.warmup.enabled=false")
 class TheFileProjectApplicationTests {
 
 	@Test
@@ -0,0 +1,60 @@
+package com.thefileproject.service;
+
+import com.thefileproject.exception.custom_exception_classes.InvalidFileException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageServiceTest {
+
+    private static final long TARGET_BYTES = 50_000;
+
+    private final ImageService imageService = new ImageService(new SimpleMeterRegistry());
+
+    @Test
+    void overBudgetPngWithoutScalingIsRejected() throws IOException {
+        MockMultipartFile png = noisePng(300);
+
+        assertThrows(InvalidFileException.class,
+                () -> imageService.compressToTargetSize(png, TARGET_BYTES, false));
+    }
+
+    @Test
+    void overBudgetPngWithScalingFitsTheTarget() throws IOException {
+        MockMultipartFile png = noisePng(1000);
+
+        ImageService.TargetSizeResult result = imageService.compressToTargetSize(png, TARGET_BYTES, true);
+
+        assertTrue(result.data().length <= TARGET_BYTES, "result of " + result.data().length + " bytes");
+        assertTrue(result.scale() < 1.0);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(result.data()));
+        assertNotNull(decoded);
+        assertTrue(decoded.getWidth() < 1000);
+    }
+
+    // Random pixels do not compress, so the PNG is far larger than the target
+    private static MockMultipartFile noisePng(int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(size);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        return new MockMultipartFile("file", "noise.png", "image/png", output.toByteArray());
+    }
+}
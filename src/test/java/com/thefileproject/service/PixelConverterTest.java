@@ -0,0 +1,127 @@
+package com.thefileproject.service;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Checks the array kernels against the {@code Graphics2D.drawImage} path they replaced:
+ * source-over onto a canvas filled with the background colour.
+ */
+class PixelConverterTest {
+
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 61;
+    private static final int[] BACKGROUNDS = {0x000000, 0xFFFFFF, 0x3366CC};
+
+    static Stream<Arguments> sources() {
+        return Stream.of(
+                Arguments.of("INT_ARGB", (Supplier<BufferedImage>) () -> randomImage(BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT)),
+                Arguments.of("INT_ARGB_PRE", (Supplier<BufferedImage>) () -> randomImage(BufferedImage.TYPE_INT_ARGB_PRE, WIDTH, HEIGHT)),
+                Arguments.of("4BYTE_ABGR", (Supplier<BufferedImage>) () -> randomImage(BufferedImage.TYPE_4BYTE_ABGR, WIDTH, HEIGHT)),
+                Arguments.of("3BYTE_BGR", (Supplier<BufferedImage>) () -> randomImage(BufferedImage.TYPE_3BYTE_BGR, WIDTH, HEIGHT)),
+                Arguments.of("BYTE_GRAY", (Supplier<BufferedImage>) () -> randomImage(BufferedImage.TYPE_BYTE_GRAY, WIDTH, HEIGHT)),
+                Arguments.of("INT_RGB", (Supplier<BufferedImage>) () -> randomImage(BufferedImage.TYPE_INT_RGB, WIDTH, HEIGHT)),
+                // getRGB fallback: a layout without a dedicated kernel, a translucent palette and a sub-image
+                Arguments.of("INT_BGR fallback", (Supplier<BufferedImage>) () -> randomImage(BufferedImage.TYPE_INT_BGR, WIDTH, HEIGHT)),
+                Arguments.of("BYTE_INDEXED fallback", (Supplier<BufferedImage>) PixelConverterTest::translucentIndexedImage),
+                Arguments.of("sub-image fallback", (Supplier<BufferedImage>) () ->
+                        randomImage(BufferedImage.TYPE_INT_ARGB, WIDTH + 20, HEIGHT + 10).getSubimage(7, 5, WIDTH, HEIGHT)),
+                // Large enough to be converted in parallel row bands
+                Arguments.of("INT_ARGB parallel", (Supplier<BufferedImage>) () -> randomImage(BufferedImage.TYPE_INT_ARGB, 1100, 1000))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("sources")
+    void matchesDrawImageWithinOnePerChannel(String name, Supplier<BufferedImage> source) {
+        BufferedImage image = source.get();
+
+        for (int background : BACKGROUNDS) {
+            BufferedImage expected = drawOnto(image, background);
+            BufferedImage actual = PixelConverter.flattenToRgb(image, background);
+
+            assertEquals(BufferedImage.TYPE_INT_RGB, actual.getType());
+            assertEquals(image.getWidth(), actual.getWidth());
+            assertEquals(image.getHeight(), actual.getHeight());
+
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    int want = expected.getRGB(x, y);
+                    int got = actual.getRGB(x, y);
+                    for (int shift = 0; shift <= 16; shift += 8) {
+                        int difference = Math.abs(((want >> shift) & 0xFF) - ((got >> shift) & 0xFF));
+                        if (difference > 1) {
+                            fail(String.format("%s on %06X at (%d,%d): expected %06X but was %06X",
+                                    name, background, x, y, want & 0xFFFFFF, got & 0xFFFFFF));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static BufferedImage drawOnto(BufferedImage image, int background) {
+        BufferedImage canvas = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = canvas.createGraphics();
+        try {
+            graphics.setColor(new Color(background));
+            graphics.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return canvas;
+    }
+
+    // Every alpha extreme plus random translucent pixels, written through setRGB so each type stores them its own way
+    private static BufferedImage randomImage(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(type * 31L + width);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int alpha = switch ((x + y) % 4) {
+                    case 0 -> 0;
+                    case 1 -> 0xFF;
+                    default -> random.nextInt(256);
+                };
+                image.setRGB(x, y, alpha << 24 | random.nextInt(1 << 24));
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage translucentIndexedImage() {
+        Random random = new Random(42);
+        byte[] reds = new byte[256];
+        byte[] greens = new byte[256];
+        byte[] blues = new byte[256];
+        byte[] alphas = new byte[256];
+        random.nextBytes(reds);
+        random.nextBytes(greens);
+        random.nextBytes(blues);
+        random.nextBytes(alphas);
+        alphas[0] = 0;
+        alphas[1] = (byte) 0xFF;
+
+        IndexColorModel palette = new IndexColorModel(8, 256, reds, greens, blues, alphas);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED, palette);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.getRaster().setSample(x, y, 0, random.nextInt(256));
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,64 @@
+package com.thefileproject.service;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TemplateServiceTest {
+
+    @Test
+    void textAfterATabStaysAfterTheTab() throws IOException {
+        try (XWPFDocument document = new XWPFDocument()) {
+            XWPFParagraph paragraph = document.createParagraph();
+            XWPFRun run = paragraph.createRun();
+            run.setText("Total:");
+            run.addTab();
+            run.setText("${amount} EUR");
+
+            TemplateService.fillParagraph(paragraph, Map.of("amount", "42"));
+
+            assertEquals("Total:\t42 EUR", paragraph.getText());
+        }
+    }
+
+    @Test
+    void placeholderSplitAcrossRunsKeepsTheBreakInPlace() throws IOException {
+        try (XWPFDocument document = new XWPFDocument()) {
+            XWPFParagraph paragraph = document.createParagraph();
+            XWPFRun first = paragraph.createRun();
+            first.setText("Dear ${name},");
+            first.addBreak();
+            first.setText("Regards, ${sen");
+            XWPFRun second = paragraph.createRun();
+            second.setBold(true);
+            second.setText("der}!");
+
+            TemplateService.fillParagraph(paragraph, Map.of("name", "Ann", "sender", "Bob"));
+
+            assertEquals("Dear Ann,\nRegards, Bob!", paragraph.getText());
+            assertEquals(2, paragraph.getRuns().size());
+            assertEquals("!", paragraph.getRuns().get(1).text());
+        }
+    }
+
+    @Test
+    void placeholderCannotSpanABreak() throws IOException {
+        try (XWPFDocument document = new XWPFDocument()) {
+            XWPFParagraph paragraph = document.createParagraph();
+            XWPFRun run = paragraph.createRun();
+            run.setText("${na");
+            run.addBreak();
+            run.setText("me}");
+
+            TemplateService.fillParagraph(paragraph, Map.of("name", "Ann"));
+
+            assertEquals("${na\nme}", paragraph.getText());
+        }
+    }
+}